@@ -0,0 +1,200 @@
+package dev.hephaestus.garden.impl;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.fabricmc.loader.api.SemanticVersion;
+import net.fabricmc.loader.api.VersionParsingException;
+import net.fabricmc.loader.api.VersionPredicate;
+import net.fabricmc.loader.api.metadata.ModDependency;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares how logins used to be checked, by decoding every mod to strings and looking each one up in the rule maps,
+ * with evaluating the mod list straight from the buffer against the compiled policy. Also compares hashing a copy of
+ * the response for the verdict cache with hashing it in place. Run with the gc profiler to see how much each allocates
+ * per login.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandshakeBenchmark {
+    @Param({"50", "300"})
+    public int mods;
+
+    private Map<String, ModDependency> required;
+    private Map<String, ModDependency> blacklisted;
+    private Map<String, ModDependency> whitelisted;
+    private CompiledPolicy policy;
+    private HashCode policyHash;
+    private ByteBuf response;
+
+    @Setup
+    public void setup() {
+        Map<String, ModDependency> required = new LinkedHashMap<>();
+        Map<String, ModDependency> blacklisted = new LinkedHashMap<>();
+        Map<String, ModDependency> whitelisted = new LinkedHashMap<>();
+
+        for (int i = 0; i < 20; ++i) {
+            required.put("required-" + i, DependencyUtil.dependency("required-" + i, Collections.singletonList(">=1.0.0")));
+        }
+
+        for (int i = 0; i < 50; ++i) {
+            blacklisted.put("cheat-" + i, DependencyUtil.dependency("cheat-" + i, Collections.singletonList("*")));
+        }
+
+        blacklisted.put("*xray*", DependencyUtil.dependency("*xray*", Collections.singletonList("*")));
+
+        this.required = required;
+        this.blacklisted = blacklisted;
+        this.whitelisted = whitelisted;
+        this.policy = new CompiledPolicy(false, required, blacklisted, whitelisted, Collections.emptyMap(), Collections.emptyMap(), BlacklistFeed.EMPTY);
+        this.policyHash = Hashing.murmur3_128().hashInt(1);
+
+        // Logins arrive in direct buffers, so the response lives in one here too
+        this.response = Unpooled.directBuffer();
+        writeVarInt(this.response, this.mods);
+
+        for (int i = 0; i < this.mods; ++i) {
+            boolean isRequired = i < 20;
+
+            writeString(this.response, isRequired ? "required-" + i : "some-client-mod-" + i);
+            writeString(this.response, isRequired ? "1.2.3" : "0." + i + ".0+build." + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.response.release();
+    }
+
+    /**
+     * The check logins went through before policies were compiled, with the config's maps in fields. Patterns weren't
+     * supported then, so the pattern rule is only ever looked up as a plain mod id.
+     */
+    @Benchmark
+    public void stringsAndMaps(Blackhole blackhole) {
+        this.response.readerIndex(0);
+
+        Map<String, String> mods = new HashMap<>();
+        Map<String, String> notAllowedMods = new LinkedHashMap<>();
+        int modCount = CompiledPolicy.readVarInt(this.response);
+
+        for (int i = 0; i < modCount; ++i) {
+            String modId = CompiledPolicy.readString(this.response);
+            String modVersion = CompiledPolicy.readString(this.response);
+
+            if (this.isBlacklisted(modId, modVersion) || (!this.isWhitelisted(modId, modVersion) && !this.isRequired(modId, modVersion))) {
+                notAllowedMods.put(modId, modVersion);
+            }
+
+            mods.put(modId, modVersion);
+        }
+
+        blackhole.consume(notAllowedMods);
+        blackhole.consume(this.getMissing(mods));
+    }
+
+    @Benchmark
+    public void evaluateInPlace(Blackhole blackhole) {
+        this.response.readerIndex(0);
+        blackhole.consume(this.policy.evaluate(this.response));
+    }
+
+    @Benchmark
+    public HashCode verdictKeyFromCopy() {
+        byte[] copy = new byte[this.response.writerIndex()];
+        this.response.getBytes(0, copy);
+
+        return Hashing.murmur3_128().newHasher().putBytes(this.policyHash.asBytes()).putBytes(copy).hash();
+    }
+
+    @Benchmark
+    public HashCode verdictKeyInPlace() {
+        return VerdictCache.key(this.policyHash, this.response, 0, this.response.writerIndex());
+    }
+
+    private boolean isBlacklisted(String modId, String modVersion) {
+        try {
+            ModDependency dependency = this.blacklisted.get(modId);
+            return dependency != null && dependency.matches(SemanticVersion.parse(modVersion));
+        } catch (VersionParsingException e) {
+            return this.blacklisted.get(modId) != null;
+        }
+    }
+
+    private boolean isWhitelisted(String modId, String modVersion) {
+        if (new ArrayList<>(this.whitelisted.values()).isEmpty()) return true;
+
+        if (CompiledPolicy.DEFAULT_WHITELIST.contains(modId)) return true;
+
+        try {
+            ModDependency dependency = this.whitelisted.get(modId);
+            return dependency != null && dependency.matches(SemanticVersion.parse(modVersion));
+        } catch (VersionParsingException e) {
+            return this.whitelisted.get(modId) != null;
+        }
+    }
+
+    private boolean isRequired(String modId, String modVersion) {
+        if (new ArrayList<>(this.required.values()).isEmpty()) return false;
+
+        try {
+            ModDependency dependency = this.required.get(modId);
+            return dependency != null && dependency.matches(SemanticVersion.parse(modVersion));
+        } catch (VersionParsingException e) {
+            return this.required.get(modId) != null;
+        }
+    }
+
+    private Map<String, String> getMissing(Map<String, String> mods) {
+        Map<String, String> result = new LinkedHashMap<>();
+
+        for (Map.Entry<String, ModDependency> entry : this.required.entrySet()) {
+            if (!mods.containsKey(entry.getKey())) {
+                result.put(entry.getKey(), entry.getValue().toString());
+                continue;
+            }
+
+            try {
+                if (!entry.getValue().matches(SemanticVersion.parse(mods.get(entry.getKey())))) {
+                    result.put(entry.getKey(), entry.getValue().toString());
+                }
+            } catch (VersionParsingException e) {
+                for (VersionPredicate predicate : entry.getValue().getVersionRequirements()) {
+                    if (predicate.getType() != VersionPredicate.Type.ANY) {
+                        result.put(entry.getKey(), entry.getValue().toString());
+                        break;
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static void writeVarInt(ByteBuf buf, int value) {
+        while ((value & -128) != 0) {
+            buf.writeByte(value & 127 | 128);
+            value >>>= 7;
+        }
+
+        buf.writeByte(value);
+    }
+
+    private static void writeString(ByteBuf buf, String string) {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+        writeVarInt(buf, bytes.length);
+        buf.writeBytes(bytes);
+    }
+}
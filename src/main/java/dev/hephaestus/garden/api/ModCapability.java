@@ -0,0 +1,41 @@
+package dev.hephaestus.garden.api;
+
+import dev.hephaestus.garden.impl.ModCapabilityImpl;
+import net.minecraft.server.network.ServerPlayerEntity;
+
+/**
+ * A mod id, and optionally a range of its versions, resolved ahead of time so that checking whether a player has it
+ * is a couple of array reads. Create these once, for example in your mod initializer, and keep them around.
+ *
+ * <p>Players only tell us about every mod they have once a capability exists, so a capability created later is checked
+ * against whatever players who had already joined reported, which may only be the mods the policy asked about. Mods
+ * that are always allowed, like Fabric API and its modules, are never reported unless the policy requires or
+ * blacklists them, so players never have capabilities for them otherwise.
+ */
+public interface ModCapability {
+    /**
+     * @return a capability that players have if they joined with any version of the given mod
+     */
+    static ModCapability of(String modId) {
+        return ModCapabilityImpl.get(modId, null);
+    }
+
+    /**
+     * @param versionRange a version predicate like {@code ">=1.2.0"}, in the same format as fabric.mod.json
+     * @return a capability that players have if they joined with a version of the given mod in the given range
+     * @throws IllegalArgumentException if the version range can't be parsed
+     */
+    static ModCapability of(String modId, String versionRange) {
+        return ModCapabilityImpl.get(modId, versionRange);
+    }
+
+    String getModId();
+
+    /**
+     * Holding on to a player's {@link PlayerModVersionsContainer} and calling
+     * {@link PlayerModVersionsContainer#has(ModCapability)} saves looking the container up by name.
+     */
+    default boolean test(ServerPlayerEntity player) {
+        return PlayerModVersionsContainer.of(player).has(this);
+    }
+}
@@ -0,0 +1,21 @@
+package dev.hephaestus.garden.api;
+
+import net.fabricmc.fabric.api.event.Event;
+import net.fabricmc.fabric.api.event.EventFactory;
+import net.minecraft.server.MinecraftServer;
+
+/**
+ * Called on the server thread once a player's mod list has been accepted. Logging in waits for every listener to
+ * return, so the player hasn't joined yet. Use this to work out anything you'd otherwise check for every packet or
+ * tick.
+ */
+@FunctionalInterface
+public interface ModListValidatedCallback {
+    Event<ModListValidatedCallback> EVENT = EventFactory.createArrayBacked(ModListValidatedCallback.class, listeners -> (server, playerName, mods) -> {
+        for (ModListValidatedCallback listener : listeners) {
+            listener.onValidated(server, playerName, mods);
+        }
+    });
+
+    void onValidated(MinecraftServer server, String playerName, PlayerModVersionsContainer mods);
+}
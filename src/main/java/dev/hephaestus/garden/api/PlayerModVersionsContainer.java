@@ -17,5 +17,17 @@ public interface PlayerModVersionsContainer extends Iterable<Map.Entry<String, S
     }
 
     @Nullable String getVersion(String modId);
+
+    /**
+     * @return an unmodifiable view of the mods the player joined with
+     */
     Map<String, String> asMap();
+
+    /**
+     * Doesn't allocate, except the first time a capability created after the player joined is checked. Those are
+     * checked against the mods the player reported when they joined, which may not have been all of them.
+     *
+     * @return whether the player joined with the mod the capability stands for, in a version it accepts
+     */
+    boolean has(ModCapability capability);
 }
@@ -0,0 +1,306 @@
+package dev.hephaestus.garden.impl;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import io.netty.buffer.ByteBuf;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * A large list of blacklisted mod ids maintained outside of the config, like a community list of cheat mods. The file
+ * has one mod id per line, and anything after a {@code #} is a comment. Every version of a listed mod is blacklisted,
+ * unless the config has a rule of its own for that mod id, or a pattern that matches it.
+ *
+ * <p>The ids are kept as one block of UTF-8 bytes, sorted so they can be binary searched, with a Bloom filter in front
+ * so that most mods that aren't listed never get that far. Both lookups work straight out of a packet.
+ */
+public class BlacklistFeed {
+    static final BlacklistFeed EMPTY = new BlacklistFeed(new ArrayList<>());
+
+    private static final int BITS_PER_ID = 10;
+    private static final int HASHES = 7;
+
+    private static volatile BlacklistFeed CURRENT = EMPTY;
+    private static @Nullable Path PATH;
+    private static @Nullable FileTime MODIFIED;
+    private static volatile boolean LOADING = false;
+
+    private final byte[] data;
+    private final int[] offsets;
+    private final long[] filter;
+    private final int filterMask;
+    private final HashCode hash;
+
+    private BlacklistFeed(List<byte[]> ids) {
+        ids.sort(BlacklistFeed::compare);
+
+        List<byte[]> unique = new ArrayList<>(ids.size());
+
+        for (byte[] id : ids) {
+            if (unique.isEmpty() || compare(unique.get(unique.size() - 1), id) != 0) {
+                unique.add(id);
+            }
+        }
+
+        int length = 0;
+
+        for (byte[] id : unique) {
+            length += id.length;
+        }
+
+        this.data = new byte[length];
+        this.offsets = new int[unique.size() + 1];
+
+        int filterBits = Integer.highestOneBit(Math.max(64, unique.size() * BITS_PER_ID - 1)) << 1;
+        this.filter = new long[filterBits >>> 6];
+        this.filterMask = filterBits - 1;
+
+        for (int i = 0, offset = 0; i < unique.size(); ++i) {
+            byte[] id = unique.get(i);
+
+            System.arraycopy(id, 0, this.data, offset, id.length);
+            this.offsets[i] = offset;
+            offset += id.length;
+            this.offsets[i + 1] = offset;
+
+            long hash = hash(id);
+
+            for (int k = 0; k < HASHES; ++k) {
+                int bit = this.bit(hash, k);
+                this.filter[bit >>> 6] |= 1L << bit;
+            }
+        }
+
+        this.hash = Hashing.murmur3_128().newHasher().putInt(unique.size()).putBytes(this.data).hash();
+    }
+
+    static BlacklistFeed read(Path path) throws IOException {
+        List<byte[]> ids = new ArrayList<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                String modId = (comment >= 0 ? line.substring(0, comment) : line).trim();
+
+                if (!modId.isEmpty()) {
+                    ids.add(modId.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        return new BlacklistFeed(ids);
+    }
+
+    /**
+     * Loads the feed the config points to, if any.
+     */
+    static void open(@Nullable Path path) {
+        PATH = path;
+
+        if (path == null) return;
+
+        try {
+            MODIFIED = Files.getLastModifiedTime(path);
+            CURRENT = read(path);
+            WalledGarden.LOG.info("Loaded {} mod ids from blacklist feed {}", CURRENT.size(), path);
+        } catch (IOException e) {
+            WalledGarden.LOG.error("Failed to read blacklist feed {}", path, e);
+        }
+    }
+
+    /**
+     * Reloads the feed in the background if it changed on disk, then swaps it in on the given thread.
+     *
+     * @param onReload run on the given thread once the new feed is in place
+     */
+    static void poll(Executor server, Runnable onReload) {
+        Path path = PATH;
+
+        if (path == null || LOADING) return;
+
+        try {
+            FileTime modified = Files.getLastModifiedTime(path);
+
+            if (modified.equals(MODIFIED)) return;
+
+            MODIFIED = modified;
+        } catch (IOException e) {
+            return;
+        }
+
+        LOADING = true;
+
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return read(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).whenCompleteAsync((feed, error) -> {
+            // Cleared no matter how reading failed, or the feed would never be polled again
+            LOADING = false;
+
+            if (error != null) {
+                WalledGarden.LOG.error("Failed to reload blacklist feed {}", path, error);
+            } else {
+                CURRENT = feed;
+                Config.invalidate();
+                WalledGarden.LOG.info("Reloaded {} mod ids from blacklist feed {}", feed.size(), path);
+                onReload.run();
+            }
+        }, server);
+    }
+
+    static BlacklistFeed get() {
+        return CURRENT;
+    }
+
+    int size() {
+        return this.offsets.length - 1;
+    }
+
+    /**
+     * @return a hash of every id in the feed, regardless of the order they were listed in
+     */
+    HashCode getHash() {
+        return this.hash;
+    }
+
+    boolean contains(String modId) {
+        byte[] bytes = modId.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(bytes);
+
+        for (int k = 0; k < HASHES; ++k) {
+            int bit = this.bit(hash, k);
+            if ((this.filter[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+
+        int low = 0;
+        int high = this.size() - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = this.compare(middle, bytes);
+
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Looks up the id encoded in the given bytes of the buffer without decoding it.
+     */
+    boolean contains(ByteBuf buf, int offset, int length) {
+        long hash = hash(buf, offset, length);
+
+        for (int k = 0; k < HASHES; ++k) {
+            int bit = this.bit(hash, k);
+            if ((this.filter[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+
+        int low = 0;
+        int high = this.size() - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = this.compare(middle, buf, offset, length);
+
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Double hashing, with both halves taken from one 64 bit hash.
+     */
+    private int bit(long hash, int k) {
+        return ((int) hash + k * (int) (hash >>> 32)) & this.filterMask;
+    }
+
+    private int compare(int index, byte[] bytes) {
+        int start = this.offsets[index];
+        int length = this.offsets[index + 1] - start;
+
+        for (int i = 0; i < length && i < bytes.length; ++i) {
+            int comparison = Integer.compare(this.data[start + i] & 0xFF, bytes[i] & 0xFF);
+            if (comparison != 0) return comparison;
+        }
+
+        return Integer.compare(length, bytes.length);
+    }
+
+    private int compare(int index, ByteBuf buf, int offset, int length) {
+        int start = this.offsets[index];
+        int idLength = this.offsets[index + 1] - start;
+
+        for (int i = 0; i < idLength && i < length; ++i) {
+            int comparison = Integer.compare(this.data[start + i] & 0xFF, buf.getByte(offset + i) & 0xFF);
+            if (comparison != 0) return comparison;
+        }
+
+        return Integer.compare(idLength, length);
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length && i < b.length; ++i) {
+            int comparison = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+            if (comparison != 0) return comparison;
+        }
+
+        return Integer.compare(a.length, b.length);
+    }
+
+    private static long hash(byte[] bytes) {
+        long hash = 0xCBF29CE484222325L;
+
+        for (byte b : bytes) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+        }
+
+        return mix(hash);
+    }
+
+    private static long hash(ByteBuf buf, int offset, int length) {
+        long hash = 0xCBF29CE484222325L;
+
+        for (int i = 0; i < length; ++i) {
+            hash = (hash ^ (buf.getByte(offset + i) & 0xFF)) * 0x100000001B3L;
+        }
+
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,162 @@
+package dev.hephaestus.garden.impl;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assigns dense ids to strings and looks them up by their UTF-8 bytes, so that ids can be matched straight out of a
+ * packet without decoding them to strings. Lookups don't allocate.
+ */
+public class ByteKeyIndex {
+    private final List<String> strings;
+    private byte[][] keys;
+    private int[] values;
+
+    ByteKeyIndex() {
+        this.strings = new ArrayList<>();
+        this.keys = new byte[16][];
+        this.values = new int[16];
+    }
+
+    private ByteKeyIndex(ByteKeyIndex index) {
+        this.strings = new ArrayList<>(index.strings);
+        this.keys = index.keys.clone();
+        this.values = index.values.clone();
+    }
+
+    /**
+     * @return an index with the same ids, which can be added to without affecting this one
+     */
+    ByteKeyIndex copy() {
+        return new ByteKeyIndex(this);
+    }
+
+    /**
+     * @return the dense id of the given string, adding it if it isn't indexed yet
+     */
+    int add(String string) {
+        byte[] key = string.getBytes(StandardCharsets.UTF_8);
+        int existing = this.get(key, 0, key.length);
+
+        if (existing >= 0) return existing;
+
+        if ((this.strings.size() + 1) * 2 > this.keys.length) {
+            this.grow();
+        }
+
+        int id = this.strings.size();
+        this.strings.add(string);
+        this.insert(key, id);
+
+        return id;
+    }
+
+    int get(String string) {
+        byte[] key = string.getBytes(StandardCharsets.UTF_8);
+        return this.get(key, 0, key.length);
+    }
+
+    /**
+     * @return the dense id of the string encoded in the given bytes of the buffer, or -1 if it isn't indexed
+     */
+    int get(ByteBuf buf, int offset, int length) {
+        int mask = this.keys.length - 1;
+
+        for (int slot = hash(buf, offset, length) & mask; this.keys[slot] != null; slot = (slot + 1) & mask) {
+            byte[] key = this.keys[slot];
+
+            if (key.length == length && equals(key, buf, offset)) {
+                return this.values[slot];
+            }
+        }
+
+        return -1;
+    }
+
+    private int get(byte[] bytes, int offset, int length) {
+        int mask = this.keys.length - 1;
+
+        for (int slot = hash(bytes, offset, length) & mask; this.keys[slot] != null; slot = (slot + 1) & mask) {
+            byte[] key = this.keys[slot];
+
+            if (key.length == length && equals(key, bytes, offset)) {
+                return this.values[slot];
+            }
+        }
+
+        return -1;
+    }
+
+    String getString(int id) {
+        return this.strings.get(id);
+    }
+
+    int size() {
+        return this.strings.size();
+    }
+
+    private void insert(byte[] key, int id) {
+        int mask = this.keys.length - 1;
+        int slot = hash(key, 0, key.length) & mask;
+
+        while (this.keys[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+
+        this.keys[slot] = key;
+        this.values[slot] = id;
+    }
+
+    private void grow() {
+        byte[][] keys = this.keys;
+        int[] values = this.values;
+
+        this.keys = new byte[keys.length * 2][];
+        this.values = new int[keys.length * 2];
+
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] != null) {
+                this.insert(keys[i], values[i]);
+            }
+        }
+    }
+
+    private static boolean equals(byte[] key, ByteBuf buf, int offset) {
+        for (int i = 0; i < key.length; ++i) {
+            if (key[i] != buf.getByte(offset + i)) return false;
+        }
+
+        return true;
+    }
+
+    private static boolean equals(byte[] key, byte[] bytes, int offset) {
+        for (int i = 0; i < key.length; ++i) {
+            if (key[i] != bytes[offset + i]) return false;
+        }
+
+        return true;
+    }
+
+    private static int hash(ByteBuf buf, int offset, int length) {
+        int hash = 0x811C9DC5;
+
+        for (int i = 0; i < length; ++i) {
+            hash = (hash ^ buf.getByte(offset + i)) * 0x01000193;
+        }
+
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0x811C9DC5;
+
+        for (int i = 0; i < length; ++i) {
+            hash = (hash ^ bytes[offset + i]) * 0x01000193;
+        }
+
+        return hash ^ (hash >>> 16);
+    }
+}
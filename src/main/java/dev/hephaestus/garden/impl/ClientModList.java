@@ -0,0 +1,127 @@
+package dev.hephaestus.garden.impl;
+
+import com.google.common.hash.HashCode;
+import io.netty.buffer.Unpooled;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.loader.api.FabricLoader;
+import net.fabricmc.loader.api.ModContainer;
+import net.fabricmc.loader.api.metadata.ModMetadata;
+import net.minecraft.network.PacketByteBuf;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The client's installed mods, collected once at startup so that responding to a server doesn't have to walk the
+ * loader's mod list every time.
+ */
+@Environment(EnvType.CLIENT)
+public class ClientModList {
+    private static ClientModList INSTANCE;
+
+    private final String[] ids;
+    private final String[] versions;
+    private final byte[] fullResponse;
+    private final CompletableFuture<HashCode[]> hashes;
+
+    private ClientModList() {
+        List<ModContainer> mods = new ArrayList<>(FabricLoader.getInstance().getAllMods());
+
+        this.ids = new String[mods.size()];
+        this.versions = new String[mods.size()];
+
+        int i = 0;
+
+        for (ModContainer container : mods) {
+            ModMetadata metadata = container.getMetadata();
+            this.ids[i] = metadata.getId();
+            this.versions[i] = metadata.getVersion().toString();
+            ++i;
+        }
+
+        PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
+        write(buf, null);
+        this.fullResponse = new byte[buf.readableBytes()];
+        buf.readBytes(this.fullResponse);
+
+        this.hashes = JarHashCache.hash(mods);
+    }
+
+    static void init() {
+        INSTANCE = new ClientModList();
+    }
+
+    public static ClientModList get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param policy the policy sent by the server, or null to write every installed mod
+     */
+    CompletableFuture<PacketByteBuf> createResponse(@Nullable SyncedPolicy policy) {
+        if (policy == null) {
+            return CompletableFuture.completedFuture(new PacketByteBuf(Unpooled.wrappedBuffer(this.fullResponse)));
+        }
+
+        PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
+        write(buf, policy);
+
+        // Trailing marker so that the server knows whether it only received part of our mod list
+        buf.writeBoolean(!policy.isReportAll());
+
+        if (policy.getVerified().isEmpty()) {
+            return CompletableFuture.completedFuture(buf);
+        }
+
+        return this.hashes.thenApply(hashes -> {
+            int count = 0;
+
+            for (int i = 0; i < this.ids.length; ++i) {
+                if (hashes[i] != null && policy.getVerified().contains(this.ids[i])) ++count;
+            }
+
+            buf.writeVarInt(count);
+
+            for (int i = 0; i < this.ids.length; ++i) {
+                if (hashes[i] != null && policy.getVerified().contains(this.ids[i])) {
+                    buf.writeString(this.ids[i]);
+                    buf.writeByteArray(hashes[i].asBytes());
+                }
+            }
+
+            return buf;
+        });
+    }
+
+    private void write(PacketByteBuf buf, @Nullable SyncedPolicy policy) {
+        int count = 0;
+
+        for (String id : this.ids) {
+            if (policy == null || policy.isRelevant(id)) ++count;
+        }
+
+        buf.writeVarInt(count);
+
+        for (int i = 0; i < this.ids.length; ++i) {
+            if (policy == null || policy.isRelevant(this.ids[i])) {
+                buf.writeString(this.ids[i]);
+                buf.writeString(this.versions[i]);
+            }
+        }
+    }
+
+    int size() {
+        return this.ids.length;
+    }
+
+    String getId(int i) {
+        return this.ids[i];
+    }
+
+    String getVersion(int i) {
+        return this.versions[i];
+    }
+}
@@ -0,0 +1,556 @@
+package dev.hephaestus.garden.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.DecoderException;
+import net.fabricmc.loader.api.SemanticVersion;
+import net.fabricmc.loader.api.VersionParsingException;
+import net.fabricmc.loader.api.VersionPredicate;
+import net.fabricmc.loader.api.metadata.ModDependency;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * An immutable snapshot of the policy, laid out for evaluating mod lists straight out of a packet. Every mod id the
+ * policy mentions has a dense id in the {@link ModIdDictionary}, whose UTF-8 bytes can be looked up without decoding
+ * them. Each rule is a bitset over those ids, so a mod list is checked a word at a time, and strings are only created
+ * for mods that violate the policy or that need their version checked.
+ */
+public class CompiledPolicy {
+    private static final int MAX_STRING_BYTES = 32767 * 4;
+
+    static final ImmutableSet<String> DEFAULT_WHITELIST = ImmutableSet.of("walled-garden", "minecraft", "java", "fabricloader", "fabric-api-base", "fabric", "fabric-biome-api-v1", "fabric-blockrenderlayer-v1", "fabric-commands-v0", "fabric-command-api-v1", "fabric-config-api-v1", "fabric-containers-v0", "fabric-content-registries-v0", "fabric-crash-report-info-v1", "fabric-dimensions-v1", "fabric-entity-events-v1", "fabric-events-interaction-v0", "fabric-events-lifecycle-v0", "fabric-game-rule-api-v1", "fabric-item-api-v1", "fabric-item-groups-v0", "fabric-keybindings-v0", "fabric-key-binding-api-v1", "fabric-lifecycle-events-v1", "fabric-loot-tables-v1", "fabric-mining-levels-v0", "fabric-models-v0", "fabric-networking-v0", "fabric-networking-api-v1", "fabric-networking-blockentity-v0", "fabric-object-builder-api-v1", "fabric-object-builders-v0", "fabric-particles-v1", "fabric-registry-sync-v0", "fabric-renderer-api-v1", "fabric-renderer-indigo", "fabric-renderer-registries-v1", "fabric-rendering-v0", "fabric-rendering-v1", "fabric-rendering-data-attachment-v1", "fabric-rendering-fluids-v1", "fabric-resource-loader-v0", "fabric-screen-api-v1", "fabric-screen-handler-api-v1", "fabric-structure-api-v1", "fabric-tag-extensions-v0", "fabric-textures-v0", "fabric-tool-attribute-api-v1");
+
+    private final ByteKeyIndex ids;
+    private final int words;
+
+    private final boolean whitelistEnabled;
+    private final boolean requiredEnabled;
+
+    // The rule for each dense id, with patterns already applied to the ids we know of
+    private final ModDependency[] blacklisted;
+    private final ModDependency[] whitelisted;
+    private final ModDependency[] required;
+    private final ModDependency[] strictlyRequired;
+
+    private final long[] blacklistedAnyVersion;
+    private final long[] blacklistedSomeVersions;
+    private final long[] allowedAnyVersion;
+    private final long[] allowedSomeVersions;
+    private final long[] requiredMods;
+    private final long[] strictSomeVersions;
+    private final long[] verified;
+
+    private final int[] missingIds;
+    private final boolean[] missingStrict;
+    private final String[] missingDescriptions;
+
+    private final BlacklistFeed feed;
+    private final ImmutableMap<String, ImmutableSet<HashCode>> allowedHashes;
+    private final ImmutableMap<String, ModDependency> modsWithBlocksAndItems;
+
+    // A hash of the policy this was compiled from, if it's the one being enforced
+    @Nullable HashCode hash;
+    private final GlobAutomaton blacklistPatterns;
+    private final GlobAutomaton whitelistPatterns;
+    private final Map<String, ModDependency> blacklistedPatterns = new HashMap<>();
+    private final Map<String, ModDependency> whitelistedPatterns = new HashMap<>();
+    private final Set<ModDependency> anyVersion = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    CompiledPolicy(boolean requireModsWithBlocksAndItems, Map<String, ModDependency> required, Map<String, ModDependency> blacklisted, Map<String, ModDependency> whitelisted, Map<String, ModDependency> modsWithBlocksAndItems, Map<String, Set<HashCode>> allowedHashes, BlacklistFeed feed) {
+        this.feed = feed;
+
+        ImmutableMap.Builder<String, ImmutableSet<HashCode>> hashes = ImmutableMap.builder();
+
+        for (Map.Entry<String, Set<HashCode>> entry : allowedHashes.entrySet()) {
+            hashes.put(entry.getKey(), ImmutableSet.copyOf(entry.getValue()));
+        }
+
+        this.allowedHashes = hashes.build();
+        this.modsWithBlocksAndItems = ImmutableMap.copyOf(modsWithBlocksAndItems);
+
+        this.whitelistEnabled = !whitelisted.isEmpty();
+        this.requiredEnabled = !required.isEmpty() || (requireModsWithBlocksAndItems && !modsWithBlocksAndItems.isEmpty());
+
+        for (String pattern : GlobAutomaton.getPatterns(blacklisted.keySet())) {
+            this.blacklistedPatterns.put(pattern, blacklisted.get(pattern));
+        }
+
+        for (String pattern : GlobAutomaton.getPatterns(whitelisted.keySet())) {
+            this.whitelistedPatterns.put(pattern, whitelisted.get(pattern));
+        }
+
+        this.blacklistPatterns = new GlobAutomaton(GlobAutomaton.getPatterns(blacklisted.keySet()));
+        this.whitelistPatterns = new GlobAutomaton(GlobAutomaton.getPatterns(whitelisted.keySet()));
+
+        for (Map<String, ModDependency> dependencies : Arrays.asList(required, blacklisted, whitelisted, modsWithBlocksAndItems)) {
+            for (ModDependency dependency : dependencies.values()) {
+                if (isAny(dependency)) this.anyVersion.add(dependency);
+            }
+        }
+
+        List<String> modIds = new ArrayList<>(required.keySet());
+        if (requireModsWithBlocksAndItems) modIds.addAll(modsWithBlocksAndItems.keySet());
+        for (String modId : blacklisted.keySet()) if (!GlobAutomaton.isPattern(modId)) modIds.add(modId);
+        for (String modId : whitelisted.keySet()) if (!GlobAutomaton.isPattern(modId)) modIds.add(modId);
+        modIds.addAll(DEFAULT_WHITELIST);
+        modIds.addAll(allowedHashes.keySet());
+
+        this.ids = ModIdDictionary.intern(modIds);
+
+        int size = this.ids.size();
+        this.words = (size + 63) >>> 6;
+
+        this.blacklisted = new ModDependency[size];
+        this.whitelisted = new ModDependency[size];
+        this.required = new ModDependency[size];
+        this.strictlyRequired = new ModDependency[size];
+
+        this.blacklistedAnyVersion = new long[this.words];
+        this.blacklistedSomeVersions = new long[this.words];
+        this.allowedAnyVersion = new long[this.words];
+        this.allowedSomeVersions = new long[this.words];
+        this.requiredMods = new long[this.words];
+        this.strictSomeVersions = new long[this.words];
+        this.verified = new long[this.words];
+
+        for (int id = 0; id < size; ++id) {
+            String modId = this.ids.getString(id);
+
+            ModDependency blacklistedVersion = blacklisted.get(modId);
+            ModDependency whitelistedVersion = whitelisted.get(modId);
+
+            if (blacklistedVersion == null) blacklistedVersion = this.getBlacklistPattern(modId);
+            if (whitelistedVersion == null) whitelistedVersion = this.getWhitelistPattern(modId);
+
+            this.blacklisted[id] = blacklistedVersion;
+            this.whitelisted[id] = whitelistedVersion;
+            this.strictlyRequired[id] = required.get(modId);
+            this.required[id] = requireModsWithBlocksAndItems && modsWithBlocksAndItems.containsKey(modId)
+                    ? modsWithBlocksAndItems.get(modId)
+                    : required.get(modId);
+
+            if (blacklistedVersion != null) {
+                set(this.isAnyVersion(blacklistedVersion) ? this.blacklistedAnyVersion : this.blacklistedSomeVersions, id);
+            } else if (!required.containsKey(modId) && whitelistedVersion == null && !DEFAULT_WHITELIST.contains(modId) && feed.contains(modId)) {
+                // Rules in the config, patterns included, take precedence over the feed
+                set(this.blacklistedAnyVersion, id);
+            }
+
+            if (DEFAULT_WHITELIST.contains(modId)) set(this.allowedAnyVersion, id);
+
+            for (ModDependency allowed : new ModDependency[] {whitelistedVersion, this.requiredEnabled ? this.required[id] : null}) {
+                if (allowed != null) {
+                    set(this.isAnyVersion(allowed) ? this.allowedAnyVersion : this.allowedSomeVersions, id);
+                }
+            }
+
+            if (this.strictlyRequired[id] != null && !this.isAnyVersion(this.strictlyRequired[id])) {
+                set(this.strictSomeVersions, id);
+            }
+
+            if (allowedHashes.containsKey(modId)) set(this.verified, id);
+        }
+
+        List<Integer> missingIds = new ArrayList<>();
+        List<Boolean> missingStrict = new ArrayList<>();
+        List<String> missingDescriptions = new ArrayList<>();
+
+        for (Map.Entry<String, ModDependency> entry : required.entrySet()) {
+            missingIds.add(this.ids.get(entry.getKey()));
+            missingStrict.add(true);
+            missingDescriptions.add(entry.getValue().toString());
+        }
+
+        if (requireModsWithBlocksAndItems) {
+            for (Map.Entry<String, ModDependency> entry : modsWithBlocksAndItems.entrySet()) {
+                missingIds.add(this.ids.get(entry.getKey()));
+                missingStrict.add(false);
+                missingDescriptions.add(entry.getValue().toString());
+            }
+        }
+
+        this.missingIds = new int[missingIds.size()];
+        this.missingStrict = new boolean[missingIds.size()];
+        this.missingDescriptions = missingDescriptions.toArray(new String[0]);
+
+        for (int i = 0; i < this.missingIds.length; ++i) {
+            this.missingIds[i] = missingIds.get(i);
+            this.missingStrict[i] = missingStrict.get(i);
+            set(this.requiredMods, this.missingIds[i]);
+        }
+    }
+
+    /**
+     * @return whether matching patterns is one table lookup per character
+     */
+    boolean isCompiled() {
+        return this.blacklistPatterns.isCompiled() && this.whitelistPatterns.isCompiled();
+    }
+
+    /**
+     * @return the mods that add blocks and items as they were when this was compiled
+     */
+    Map<String, ModDependency> getModsWithBlocksAndItems() {
+        return this.modsWithBlocksAndItems;
+    }
+
+    /**
+     * @return whether the given jar hash is allowed for the given mod, or true if its contents aren't verified
+     */
+    boolean isHashAllowed(String modId, @Nullable HashCode hash) {
+        Set<HashCode> hashes = this.allowedHashes.get(modId);
+        return hashes == null || (hash != null && hashes.contains(hash));
+    }
+
+    /**
+     * @return the blacklist rule for the given mod id, or the first pattern rule matching it
+     */
+    @Nullable ModDependency getBlacklistRule(String modId) {
+        int id = this.ids.get(modId);
+        return id >= 0 ? this.blacklisted[id] : this.getBlacklistPattern(modId);
+    }
+
+    /**
+     * @return whether any mods are required, including those that add blocks and items if they have to be installed
+     */
+    boolean hasRequiredMods() {
+        return this.missingIds.length > 0;
+    }
+
+    @Nullable ModDependency getBlacklistPattern(String modId) {
+        String pattern = this.blacklistPatterns.match(modId);
+        return pattern == null ? null : this.blacklistedPatterns.get(pattern);
+    }
+
+    @Nullable ModDependency getWhitelistPattern(String modId) {
+        String pattern = this.whitelistPatterns.match(modId);
+        return pattern == null ? null : this.whitelistedPatterns.get(pattern);
+    }
+
+    /**
+     * Reads a mod list in the handshake format and evaluates it against this policy. The buffer is left positioned
+     * right after the mod list.
+     */
+    Result evaluate(ByteBuf buf) {
+        Result result = new Result();
+        ModList mods = new ModList(buf, this.ids.size());
+        int modCount = readVarInt(buf);
+
+        for (int i = 0; i < modCount; ++i) {
+            int idLength = readLength(buf);
+            int idOffset = buf.readerIndex();
+            buf.skipBytes(idLength);
+
+            int versionLength = readLength(buf);
+            int versionOffset = buf.readerIndex();
+            buf.skipBytes(versionLength);
+
+            int id = this.ids.get(buf, idOffset, idLength);
+
+            if (id >= 0) {
+                mods.add(id, versionOffset, versionLength);
+            } else if (this.isUnknownNotAllowed(buf, idOffset, idLength, versionOffset, versionLength)) {
+                result.notAllowed.put(buf.toString(idOffset, idLength, StandardCharsets.UTF_8), buf.toString(versionOffset, versionLength, StandardCharsets.UTF_8));
+            }
+        }
+
+        this.addViolations(mods, result);
+
+        return result;
+    }
+
+    /**
+     * Evaluates a mod list that has already been read into strings. Jar hashes aren't part of it, so mods whose
+     * contents are verified are only listed.
+     */
+    Result evaluate(Map<String, String> installed) {
+        Result result = new Result();
+        ModList mods = new ModList(null, this.ids.size());
+
+        for (Map.Entry<String, String> mod : installed.entrySet()) {
+            int id = this.ids.get(mod.getKey());
+
+            if (id >= 0) {
+                mods.add(id, mod.getValue());
+            } else if (this.isUnknownNotAllowed(mod.getKey(), mod.getValue())) {
+                result.notAllowed.put(mod.getKey(), mod.getValue());
+            }
+        }
+
+        this.addViolations(mods, result);
+
+        return result;
+    }
+
+    private void addViolations(ModList mods, Result result) {
+        long[] notAllowed = this.getNotAllowed(mods);
+
+        for (int word = 0; word < this.words; ++word) {
+            for (long bits = (notAllowed[word] | this.verified[word]) & mods.present[word]; bits != 0; bits &= bits - 1) {
+                int id = (word << 6) | Long.numberOfTrailingZeros(bits);
+                String modId = this.ids.getString(id);
+
+                if (get(notAllowed, id)) result.notAllowed.put(modId, mods.getVersion(id));
+                if (get(this.verified, id)) result.verified.put(modId, mods.getVersion(id));
+            }
+        }
+
+        this.addMissing(mods, result.missing);
+    }
+
+    /**
+     * Blacklisted mods are rejected outright when every version is blacklisted, and so are mods that aren't allowed
+     * in any version, so versions only have to be compared for the few mods that are left.
+     */
+    private long[] getNotAllowed(ModList mods) {
+        long[] result = new long[this.words];
+
+        for (int word = 0; word < this.words; ++word) {
+            long present = mods.present[word];
+            long notAllowed = present & this.blacklistedAnyVersion[word];
+
+            for (long bits = present & this.blacklistedSomeVersions[word]; bits != 0; bits &= bits - 1) {
+                int id = (word << 6) | Long.numberOfTrailingZeros(bits);
+
+                if (matchesOrUnparseable(this.blacklisted[id], mods.getVersion(id))) notAllowed |= bits & -bits;
+            }
+
+            if (this.whitelistEnabled) {
+                long unlisted = present & ~notAllowed & ~this.allowedAnyVersion[word];
+
+                notAllowed |= unlisted & ~this.allowedSomeVersions[word];
+
+                for (long bits = unlisted & this.allowedSomeVersions[word]; bits != 0; bits &= bits - 1) {
+                    int id = (word << 6) | Long.numberOfTrailingZeros(bits);
+
+                    if (!this.isAllowed(id, mods.getVersion(id))) notAllowed |= bits & -bits;
+                }
+            }
+
+            result[word] = notAllowed;
+        }
+
+        return result;
+    }
+
+    private void addMissing(ModList mods, Map<String, String> result) {
+        long[] absent = new long[this.words];
+        long[] wrongVersion = new long[this.words];
+        boolean any = false;
+
+        for (int word = 0; word < this.words; ++word) {
+            absent[word] = this.requiredMods[word] & ~mods.present[word];
+
+            for (long bits = this.strictSomeVersions[word] & mods.present[word]; bits != 0; bits &= bits - 1) {
+                int id = (word << 6) | Long.numberOfTrailingZeros(bits);
+
+                if (!DependencyUtil.matches(this.strictlyRequired[id], mods.getVersion(id))) wrongVersion[word] |= bits & -bits;
+            }
+
+            any |= (absent[word] | wrongVersion[word]) != 0;
+        }
+
+        if (!any) return;
+
+        for (int i = 0; i < this.missingIds.length; ++i) {
+            int id = this.missingIds[i];
+
+            if (get(absent, id) || (this.missingStrict[i] && get(wrongVersion, id))) {
+                result.put(this.ids.getString(id), this.missingDescriptions[i]);
+            }
+        }
+    }
+
+    /**
+     * Mods this policy doesn't know by name can only be blacklisted by the feed or a pattern, or whitelisted by a
+     * pattern. The feed only applies when neither pattern matches.
+     */
+    private boolean isUnknownNotAllowed(ByteBuf buf, int idOffset, int idLength, int versionOffset, int versionLength) {
+        String pattern = this.blacklistPatterns.match(buf, idOffset, idLength);
+        ModDependency blacklisted = pattern == null ? null : this.blacklistedPatterns.get(pattern);
+
+        if (blacklisted != null && (this.isAnyVersion(blacklisted) || matchesOrUnparseable(blacklisted, buf.toString(versionOffset, versionLength, StandardCharsets.UTF_8)))) {
+            return true;
+        }
+
+        pattern = this.whitelistPatterns.match(buf, idOffset, idLength);
+        ModDependency whitelisted = pattern == null ? null : this.whitelistedPatterns.get(pattern);
+
+        if (blacklisted == null && whitelisted == null && this.feed.contains(buf, idOffset, idLength)) return true;
+
+        if (!this.whitelistEnabled) return false;
+
+        return whitelisted == null || !(this.isAnyVersion(whitelisted) || matchesOrUnparseable(whitelisted, buf.toString(versionOffset, versionLength, StandardCharsets.UTF_8)));
+    }
+
+    private boolean isUnknownNotAllowed(String modId, String version) {
+        ModDependency blacklisted = this.getBlacklistPattern(modId);
+
+        if (blacklisted != null && (this.isAnyVersion(blacklisted) || matchesOrUnparseable(blacklisted, version))) {
+            return true;
+        }
+
+        ModDependency whitelisted = this.getWhitelistPattern(modId);
+
+        if (blacklisted == null && whitelisted == null && this.feed.contains(modId)) return true;
+
+        if (!this.whitelistEnabled) return false;
+
+        return whitelisted == null || !(this.isAnyVersion(whitelisted) || matchesOrUnparseable(whitelisted, version));
+    }
+
+    private boolean isAllowed(int id, String version) {
+        ModDependency whitelisted = this.whitelisted[id];
+        ModDependency required = this.requiredEnabled ? this.required[id] : null;
+
+        return (whitelisted != null && matchesOrUnparseable(whitelisted, version))
+                || (required != null && matchesOrUnparseable(required, version));
+    }
+
+    /**
+     * Reads a mod list in the handshake format into strings, for mod lists we're keeping.
+     */
+    static Map<String, String> read(ByteBuf buf) {
+        Map<String, String> mods = new HashMap<>();
+        int modCount = readVarInt(buf);
+
+        for (int i = 0; i < modCount; ++i) {
+            String modId = readString(buf);
+            String modVersion = readString(buf);
+
+            mods.put(modId, modVersion);
+        }
+
+        return mods;
+    }
+
+    static void skip(ByteBuf buf) {
+        int modCount = readVarInt(buf);
+
+        for (int i = 0; i < modCount * 2; ++i) {
+            buf.skipBytes(readLength(buf));
+        }
+    }
+
+    private static void set(long[] bits, int id) {
+        bits[id >>> 6] |= 1L << id;
+    }
+
+    private static boolean get(long[] bits, int id) {
+        return (bits[id >>> 6] & (1L << id)) != 0;
+    }
+
+    static String readString(ByteBuf buf) {
+        int length = readLength(buf);
+        String string = buf.toString(buf.readerIndex(), length, StandardCharsets.UTF_8);
+        buf.skipBytes(length);
+
+        return string;
+    }
+
+    /**
+     * Reads a var int the same way {@link net.minecraft.network.PacketByteBuf} does, without needing Minecraft.
+     */
+    static int readVarInt(ByteBuf buf) {
+        int result = 0;
+        int shift = 0;
+        byte b;
+
+        do {
+            b = buf.readByte();
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+
+            if (shift > 35) throw new DecoderException("VarInt too big");
+        } while ((b & 0x80) != 0);
+
+        return result;
+    }
+
+    private static int readLength(ByteBuf buf) {
+        int length = readVarInt(buf);
+
+        if (length < 0 || length > MAX_STRING_BYTES || length > buf.readableBytes()) {
+            throw new DecoderException("Invalid string length " + length);
+        }
+
+        return length;
+    }
+
+    /**
+     * Dependencies that accept any version match every version, even ones that aren't semantic.
+     */
+    private boolean isAnyVersion(ModDependency dependency) {
+        return this.anyVersion.contains(dependency);
+    }
+
+    private static boolean isAny(ModDependency dependency) {
+        for (VersionPredicate predicate : dependency.getVersionRequirements()) {
+            if (predicate.getType() != VersionPredicate.Type.ANY) return false;
+        }
+
+        return true;
+    }
+
+    private static boolean matchesOrUnparseable(ModDependency dependency, String version) {
+        try {
+            return dependency.matches(SemanticVersion.parse(version));
+        } catch (VersionParsingException e) {
+            return true;
+        }
+    }
+
+    /**
+     * The mods in a mod list that this policy knows of, with their versions left undecoded until they're needed.
+     */
+    private static class ModList {
+        final long[] present;
+        final int[] versionOffsets;
+        final int[] versionLengths;
+        final String[] versions;
+        final @Nullable ByteBuf buf;
+
+        ModList(@Nullable ByteBuf buf, int size) {
+            this.buf = buf;
+            this.present = new long[(size + 63) >>> 6];
+            this.versionOffsets = new int[size];
+            this.versionLengths = new int[size];
+            this.versions = new String[size];
+        }
+
+        void add(int id, int versionOffset, int versionLength) {
+            set(this.present, id);
+            this.versionOffsets[id] = versionOffset;
+            this.versionLengths[id] = versionLength;
+            this.versions[id] = null;
+        }
+
+        void add(int id, String version) {
+            set(this.present, id);
+            this.versions[id] = version;
+        }
+
+        String getVersion(int id) {
+            String version = this.versions[id];
+
+            if (version == null) {
+                //noinspection ConstantConditions
+                version = this.buf.toString(this.versionOffsets[id], this.versionLengths[id], StandardCharsets.UTF_8);
+                this.versions[id] = version;
+            }
+
+            return version;
+        }
+    }
+
+    static class Result {
+        final Map<String, String> notAllowed = new LinkedHashMap<>();
+        final Map<String, String> missing = new LinkedHashMap<>();
+        final Map<String, String> verified = new LinkedHashMap<>();
+    }
+}
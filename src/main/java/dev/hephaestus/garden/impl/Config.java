@@ -1,17 +1,24 @@
 package dev.hephaestus.garden.impl;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import io.netty.buffer.Unpooled;
 import net.fabricmc.loader.api.FabricLoader;
-import net.fabricmc.loader.api.SemanticVersion;
-import net.fabricmc.loader.api.VersionParsingException;
 import net.fabricmc.loader.api.VersionPredicate;
 import net.fabricmc.loader.api.metadata.ModDependency;
-import net.fabricmc.loader.lib.gson.JsonReader;
+import net.minecraft.network.PacketByteBuf;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
@@ -19,86 +26,452 @@ import java.util.*;
 public class Config {
     private static final Path CONFIG_FILE = FabricLoader.getInstance().getConfigDir().resolve("walled-garden.json");
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final Path CACHE_FILE = FabricLoader.getInstance().getConfigDir().resolve("walled-garden-cache.dat");
+    private static final int CACHE_MAGIC = 0x57474343;
+    private static final int CACHE_FORMAT = 1;
 
     private static boolean REQUIRE_INSTALLED_MODS_WITH_BLOCKS_AND_ITEMS = true;
     private static final Map<String, ModDependency> REQUIRED_MODS = new LinkedHashMap<>();
     private static final Map<String, ModDependency> BLACKLISTED_MODS = new LinkedHashMap<>();
     private static final Map<String, ModDependency> WHITELISTED_MODS = new LinkedHashMap<>();
     private static final Map<String, ModDependency> MODS_THAT_ADD_BLOCKS_AND_ITEMS = new LinkedHashMap<>();
+    private static final Map<String, Set<HashCode>> ALLOWED_HASHES = new LinkedHashMap<>();
+
+    private static @Nullable String SHARED_STORE = null;
+    private static boolean CATALOG = false;
+    private static boolean RECORD_HANDSHAKES = false;
+    private static @Nullable String SHADOW_POLICY = null;
+    private static @Nullable String BLACKLIST_FEED = null;
+
+    private static volatile int VERSION = 0;
+    private static int HASHED_VERSION = -1;
+    private static int COMPILED_VERSION = -1;
+    private static volatile CompiledPolicy COMPILED;
+    private static HashCode POLICY_HASH;
 
     private Config() {
     }
 
-    static void read() {
+    /**
+     * Reads the config, from the cache if it hasn't changed since it was last written, and writes it back if reading it
+     * changed anything, like resolving the versions of installed mods.
+     */
+    static void read(StartupTimer timer) {
+        byte[] contents = null;
+
         if (Files.exists(CONFIG_FILE)) {
             try {
-                JsonReader reader = new JsonReader(Files.newBufferedReader(CONFIG_FILE));
-
-                reader.beginObject();
-
-                while (reader.hasNext()) {
-                    String key = reader.nextName();
-
-                    switch (key) {
-                        case "require_mods_that_add_blocks_and_items":
-                            REQUIRE_INSTALLED_MODS_WITH_BLOCKS_AND_ITEMS = reader.nextBoolean();
-                            break;
-                        case "required":
-                            DependencyUtil.readDependenciesContainer(reader, REQUIRED_MODS);
-                            break;
-                        case "blacklisted":
-                            DependencyUtil.readDependenciesContainer(reader, BLACKLISTED_MODS);
-                            break;
-                        case "whitelisted":
-                            DependencyUtil.readDependenciesContainer(reader, WHITELISTED_MODS);
-                            break;
-                        default:
-                            reader.skipValue();
-                    }
-                }
-            } catch (Exception e) {
+                contents = Files.readAllBytes(CONFIG_FILE);
+            } catch (IOException e) {
                 throw new RuntimeException(e);
             }
+
+            HashCode hash = Hashing.murmur3_128().hashBytes(contents);
+
+            // The cache is only ever written for a file we just wrote or confirmed ourselves, so it needs no rewrite
+            if (readCache(hash)) {
+                ++VERSION;
+                indexRules();
+                timer.lap("config (cached)");
+                return;
+            }
+
+            parse(contents);
+            timer.lap("config");
         }
 
-        write();
+        indexRules();
+
+        byte[] serialized = serialize();
+
+        if (!Arrays.equals(serialized, contents)) {
+            write(serialized);
+        }
+
+        ++VERSION;
+        writeCache(Hashing.murmur3_128().hashBytes(serialized));
+        timer.lap("config save");
     }
 
-    static void write() {
+    private static void parse(byte[] contents) {
         try {
-            JsonObject object = new JsonObject();
+            Reader reader = new InputStreamReader(new ByteArrayInputStream(contents), StandardCharsets.UTF_8);
+            PolicyFile file = PolicyFile.read(reader, (key, json) -> {
+                switch (key) {
+                    case "shared_store":
+                        SHARED_STORE = json.nextString();
+                        return true;
+                    case "catalog":
+                        CATALOG = json.nextBoolean();
+                        return true;
+                    case "record_handshakes":
+                        RECORD_HANDSHAKES = json.nextBoolean();
+                        return true;
+                    case "shadow_policy":
+                        SHADOW_POLICY = json.nextString();
+                        return true;
+                    default:
+                        return false;
+                }
+            });
+
+            REQUIRE_INSTALLED_MODS_WITH_BLOCKS_AND_ITEMS = file.requireModsWithBlocksAndItems;
+            REQUIRED_MODS.putAll(file.required);
+            BLACKLISTED_MODS.putAll(file.blacklisted);
+            WHITELISTED_MODS.putAll(file.whitelisted);
+            ALLOWED_HASHES.putAll(file.hashes);
+            BLACKLIST_FEED = file.blacklistFeed;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            object.addProperty("require_mods_that_add_blocks_and_items", REQUIRE_INSTALLED_MODS_WITH_BLOCKS_AND_ITEMS);
-            object.add("required", DependencyUtil.toJsonObject(REQUIRED_MODS));
-            object.add("blacklisted", DependencyUtil.toJsonObject(BLACKLISTED_MODS));
-            object.add("whitelisted", DependencyUtil.toJsonObject(WHITELISTED_MODS));
+    /**
+     * Reads the rules and settings cached for the config file with the given hash, skipping the JSON along with the
+     * lookups of installed mods' versions.
+     *
+     * @return whether the cache was for the given config file
+     */
+    private static boolean readCache(HashCode hash) {
+        if (!Files.exists(CACHE_FILE)) return false;
+
+        try {
+            PacketByteBuf buf = new PacketByteBuf(Unpooled.wrappedBuffer(Files.readAllBytes(CACHE_FILE)));
 
-            BufferedWriter writer = Files.newBufferedWriter(CONFIG_FILE);
-            GSON.toJson(object, writer);
-            writer.flush();
-            writer.close();
+            if (buf.readInt() != CACHE_MAGIC || buf.readInt() != CACHE_FORMAT) return false;
+            if (!hash.equals(HashCode.fromBytes(buf.readByteArray(64)))) return false;
+
+            SHARED_STORE = buf.readBoolean() ? buf.readString(32767) : null;
+            CATALOG = buf.readBoolean();
+            RECORD_HANDSHAKES = buf.readBoolean();
+            SHADOW_POLICY = buf.readBoolean() ? buf.readString(32767) : null;
+            BLACKLIST_FEED = buf.readBoolean() ? buf.readString(32767) : null;
+            decodeRules(buf);
+
+            return true;
         } catch (Exception e) {
+            WalledGarden.LOG.warn("Ignoring unreadable config cache {}", CACHE_FILE, e);
+
+            SHARED_STORE = null;
+            CATALOG = false;
+            RECORD_HANDSHAKES = false;
+            SHADOW_POLICY = null;
+            BLACKLIST_FEED = null;
+            REQUIRE_INSTALLED_MODS_WITH_BLOCKS_AND_ITEMS = true;
+            REQUIRED_MODS.clear();
+            BLACKLISTED_MODS.clear();
+            WHITELISTED_MODS.clear();
+            ALLOWED_HASHES.clear();
+
+            return false;
+        }
+    }
+
+    private static void writeCache(HashCode hash) {
+        PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
+
+        buf.writeInt(CACHE_MAGIC);
+        buf.writeInt(CACHE_FORMAT);
+        buf.writeByteArray(hash.asBytes());
+        writeNullable(buf, SHARED_STORE);
+        buf.writeBoolean(CATALOG);
+        buf.writeBoolean(RECORD_HANDSHAKES);
+        writeNullable(buf, SHADOW_POLICY);
+        writeNullable(buf, BLACKLIST_FEED);
+        buf.writeBytes(encode());
+
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.readBytes(bytes);
+
+        try {
+            Files.write(CACHE_FILE, bytes);
+        } catch (IOException e) {
+            WalledGarden.LOG.warn("Failed to write config cache {}", CACHE_FILE, e);
+        }
+    }
+
+    private static void writeNullable(PacketByteBuf buf, @Nullable String string) {
+        buf.writeBoolean(string != null);
+
+        if (string != null) {
+            buf.writeString(string);
+        }
+    }
+
+    private static void indexRules() {
+        for (String modId : REQUIRED_MODS.keySet()) ModIdIndex.add(modId);
+        for (String modId : BLACKLISTED_MODS.keySet()) ModIdIndex.add(modId);
+        for (String modId : WHITELISTED_MODS.keySet()) ModIdIndex.add(modId);
+    }
+
+    static void write() {
+        save();
+        SharedPolicyStore.publish();
+    }
+
+    /**
+     * Writes the config file without sharing the change with other server instances.
+     */
+    private static void save() {
+        ++VERSION;
+        write(serialize());
+        compile();
+    }
+
+    private static void write(byte[] serialized) {
+        try {
+            Files.write(CONFIG_FILE, serialized);
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private static byte[] serialize() {
+        JsonObject object = new JsonObject();
+
+        object.addProperty("require_mods_that_add_blocks_and_items", REQUIRE_INSTALLED_MODS_WITH_BLOCKS_AND_ITEMS);
+        object.add("required", DependencyUtil.toJsonObject(REQUIRED_MODS));
+        object.add("blacklisted", DependencyUtil.toJsonObject(BLACKLISTED_MODS));
+        object.add("whitelisted", DependencyUtil.toJsonObject(WHITELISTED_MODS));
+
+        JsonObject integrity = new JsonObject();
+
+        for (Map.Entry<String, Set<HashCode>> entry : ALLOWED_HASHES.entrySet()) {
+            JsonArray hashes = new JsonArray();
+
+            for (HashCode hash : entry.getValue()) {
+                hashes.add(hash.toString());
+            }
+
+            integrity.add(entry.getKey(), hashes);
+        }
+
+        object.add("integrity", integrity);
+
+        if (BLACKLIST_FEED != null) {
+            object.addProperty("blacklist_feed", BLACKLIST_FEED);
+        }
+
+        if (SHARED_STORE != null) {
+            object.addProperty("shared_store", SHARED_STORE);
+        }
+
+        object.addProperty("catalog", CATALOG);
+        object.addProperty("record_handshakes", RECORD_HANDSHAKES);
+
+        if (SHADOW_POLICY != null) {
+            object.addProperty("shadow_policy", SHADOW_POLICY);
+        }
+
+        return GSON.toJson(object).getBytes(StandardCharsets.UTF_8);
+    }
+
     static void require(String modId, ModDependency dependency) {
         REQUIRED_MODS.put(modId, dependency);
+        ModIdIndex.add(modId);
         write();
     }
 
     static void blacklist(String modId, ModDependency dependency) {
         BLACKLISTED_MODS.put(modId, dependency);
+        ModIdIndex.add(modId);
         write();
     }
 
     static void whitelist(String modId, ModDependency dependency) {
         WHITELISTED_MODS.put(modId, dependency);
+        ModIdIndex.add(modId);
         write();
     }
 
     static void addsBlockOrItem(String modId) {
-        MODS_THAT_ADD_BLOCKS_AND_ITEMS.put(modId, DependencyUtil.dependency(modId, "\"*\""));
+        if (!MODS_THAT_ADD_BLOCKS_AND_ITEMS.containsKey(modId)) {
+            MODS_THAT_ADD_BLOCKS_AND_ITEMS.put(modId, DependencyUtil.dependency(modId, "\"*\""));
+            ++VERSION;
+        }
+    }
+
+    /**
+     * Makes everything that's cached against the policy be rebuilt, for when something outside of the config changes
+     * what we ask of clients.
+     */
+    static void invalidate() {
+        ++VERSION;
+    }
+
+    /**
+     * @return a counter that changes whenever the effective policy changes
+     */
+    static int getVersion() {
+        return VERSION;
+    }
+
+    static @Nullable Path getSharedStore() {
+        return SHARED_STORE == null ? null : FabricLoader.getInstance().getGameDir().resolve(SHARED_STORE);
+    }
+
+    static @Nullable Path getBlacklistFeed() {
+        return BLACKLIST_FEED == null ? null : FabricLoader.getInstance().getGameDir().resolve(BLACKLIST_FEED);
+    }
+
+    static @Nullable Path getShadowPolicy() {
+        return SHADOW_POLICY == null ? null : FabricLoader.getInstance().getGameDir().resolve(SHADOW_POLICY);
+    }
+
+    /**
+     * Stages a candidate config to evaluate logins against, without sharing it with other server instances.
+     */
+    static void setShadowPolicy(@Nullable String path) {
+        SHADOW_POLICY = path;
+        save();
+    }
+
+    /**
+     * Encodes everything an operator can configure, except for instance specific settings.
+     */
+    static byte[] encode() {
+        PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
+
+        buf.writeBoolean(REQUIRE_INSTALLED_MODS_WITH_BLOCKS_AND_ITEMS);
+        encode(buf, REQUIRED_MODS);
+        encode(buf, BLACKLISTED_MODS);
+        encode(buf, WHITELISTED_MODS);
+
+        buf.writeVarInt(ALLOWED_HASHES.size());
+
+        for (Map.Entry<String, Set<HashCode>> entry : ALLOWED_HASHES.entrySet()) {
+            buf.writeString(entry.getKey());
+            buf.writeVarInt(entry.getValue().size());
+
+            for (HashCode hash : entry.getValue()) {
+                buf.writeByteArray(hash.asBytes());
+            }
+        }
+
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.readBytes(bytes);
+
+        return bytes;
+    }
+
+    private static void encode(PacketByteBuf buf, Map<String, ModDependency> dependencies) {
+        buf.writeVarInt(dependencies.size());
+
+        for (Map.Entry<String, ModDependency> entry : dependencies.entrySet()) {
+            Set<VersionPredicate> predicates = entry.getValue().getVersionRequirements();
+
+            buf.writeString(entry.getKey());
+            buf.writeVarInt(predicates.size());
+
+            for (VersionPredicate predicate : predicates) {
+                buf.writeString(predicate.toString());
+            }
+        }
+    }
+
+    /**
+     * Replaces the current policy with one produced by {@link Config#encode()}.
+     */
+    static void decode(byte[] bytes) {
+        decodeRules(new PacketByteBuf(Unpooled.wrappedBuffer(bytes)));
+        indexRules();
+        save();
+    }
+
+    private static void decodeRules(PacketByteBuf buf) {
+        REQUIRE_INSTALLED_MODS_WITH_BLOCKS_AND_ITEMS = buf.readBoolean();
+        decode(buf, REQUIRED_MODS);
+        decode(buf, BLACKLISTED_MODS);
+        decode(buf, WHITELISTED_MODS);
+
+        ALLOWED_HASHES.clear();
+        int hashedCount = buf.readVarInt();
+
+        for (int i = 0; i < hashedCount; ++i) {
+            String modId = buf.readString(32767);
+            int hashCount = buf.readVarInt();
+            Set<HashCode> hashes = new HashSet<>();
+
+            for (int j = 0; j < hashCount; ++j) {
+                hashes.add(HashCode.fromBytes(buf.readByteArray(64)));
+            }
+
+            ALLOWED_HASHES.put(modId, hashes);
+        }
+    }
+
+    private static void decode(PacketByteBuf buf, Map<String, ModDependency> dependencies) {
+        dependencies.clear();
+        int count = buf.readVarInt();
+
+        for (int i = 0; i < count; ++i) {
+            String modId = buf.readString(32767);
+            int predicateCount = buf.readVarInt();
+            List<String> predicates = new ArrayList<>(predicateCount);
+
+            for (int j = 0; j < predicateCount; ++j) {
+                predicates.add(buf.readString(32767));
+            }
+
+            ModDependency dependency = DependencyUtil.dependency(modId, predicates);
+
+            if (dependency != null) {
+                dependencies.put(modId, dependency);
+            }
+        }
+    }
+
+    /**
+     * @return a hash of the effective policy, which is the same for every instance enforcing the same rules
+     */
+    static synchronized HashCode getPolicyHash() {
+        if (HASHED_VERSION != VERSION) {
+            int version = VERSION;
+            Hasher hasher = Hashing.murmur3_128().newHasher()
+                    .putBytes(encode())
+                    .putBytes(BlacklistFeed.get().getHash().asBytes());
+
+            if (REQUIRE_INSTALLED_MODS_WITH_BLOCKS_AND_ITEMS) {
+                for (String modId : MODS_THAT_ADD_BLOCKS_AND_ITEMS.keySet()) {
+                    hasher.putString(modId, StandardCharsets.UTF_8).putByte((byte) 0);
+                }
+            }
+
+            POLICY_HASH = hasher.hash();
+            HASHED_VERSION = version;
+        }
+
+        return POLICY_HASH;
+    }
+
+    /**
+     * @return whether the mods players join with should be recorded in the {@link ModCatalog}
+     */
+    static boolean isCatalogEnabled() {
+        return CATALOG;
+    }
+
+    /**
+     * @return whether the mod lists players join with should be kept in the {@link HandshakeLog}
+     */
+    static boolean isRecordingHandshakes() {
+        return RECORD_HANDSHAKES;
+    }
+
+    static boolean isWhitelistEnabled() {
+        return !WHITELISTED_MODS.isEmpty();
+    }
+
+    static boolean hasRequiredRule(String modId) {
+        return REQUIRED_MODS.containsKey(modId);
+    }
+
+    static boolean hasBlacklistRule(String modId) {
+        return BLACKLISTED_MODS.containsKey(modId);
+    }
+
+    static boolean hasWhitelistRule(String modId) {
+        return WHITELISTED_MODS.containsKey(modId);
     }
 
     static @Nullable ModDependency getRequiredVersion(String modId) {
@@ -107,12 +480,60 @@ public class Config {
                 : REQUIRED_MODS.get(modId);
     }
 
+    /**
+     * @return the rule for the given mod id, or the first pattern rule matching it
+     */
     static @Nullable ModDependency getBlacklistedVersion(String modId) {
-        return BLACKLISTED_MODS.get(modId);
+        ModDependency dependency = BLACKLISTED_MODS.get(modId);
+
+        if (dependency == null) {
+            dependency = getCompiled().getBlacklistPattern(modId);
+        }
+
+        return dependency;
     }
 
     static @Nullable ModDependency getWhitelistedVersion(String modId) {
-        return WHITELISTED_MODS.get(modId);
+        ModDependency dependency = WHITELISTED_MODS.get(modId);
+
+        if (dependency == null) {
+            dependency = getCompiled().getWhitelistPattern(modId);
+        }
+
+        return dependency;
+    }
+
+    /**
+     * Rebuilds the compiled policy if the policy changed since it was last compiled. Only called on the server thread,
+     * since that's the only one allowed to read the config while it changes, and compiling patterns can take a while.
+     *
+     * @return the current policy compiled for evaluating mod lists
+     */
+    static synchronized CompiledPolicy compile() {
+        if (COMPILED_VERSION != VERSION) {
+            int version = VERSION;
+            CompiledPolicy compiled = new CompiledPolicy(REQUIRE_INSTALLED_MODS_WITH_BLOCKS_AND_ITEMS, REQUIRED_MODS, BLACKLISTED_MODS, WHITELISTED_MODS, MODS_THAT_ADD_BLOCKS_AND_ITEMS, ALLOWED_HASHES, BlacklistFeed.get());
+
+            compiled.hash = getPolicyHash();
+            COMPILED = compiled;
+            COMPILED_VERSION = version;
+
+            if (!compiled.isCompiled()) {
+                WalledGarden.LOG.warn("Mod id patterns are too complex to compile, matching them will be slower");
+            }
+        }
+
+        return COMPILED;
+    }
+
+    /**
+     * Safe to call from any thread, including the ones players log in on. Changes to the policy are compiled as
+     * they're made, and anything else that affects it is picked up within a tick.
+     *
+     * @return the policy as it was last compiled
+     */
+    static CompiledPolicy getCompiled() {
+        return COMPILED;
     }
 
     static Collection<ModDependency> getRequiredMods() {
@@ -125,6 +546,10 @@ public class Config {
         return dependencies;
     }
 
+    static Map<String, ModDependency> getModsThatAddBlocksAndItems() {
+        return new LinkedHashMap<>(MODS_THAT_ADD_BLOCKS_AND_ITEMS);
+    }
+
     static Collection<ModDependency> getBlacklistedMods() {
         return new ArrayList<>(BLACKLISTED_MODS.values());
     }
@@ -133,38 +558,15 @@ public class Config {
         return new ArrayList<>(WHITELISTED_MODS.values());
     }
 
-    static Map<String, String> getMissing(Map<String, String> mods) {
-        Map<String, String> result = new LinkedHashMap<>();
-
-        for (Map.Entry<String, ModDependency> entry : REQUIRED_MODS.entrySet()) {
-            if (!mods.containsKey(entry.getKey())) {
-                result.put(entry.getKey(), entry.getValue().toString());
-                continue;
-            }
-
-            try {
-                if (!entry.getValue().matches(SemanticVersion.parse(mods.get(entry.getKey())))) {
-                    result.put(entry.getKey(), entry.getValue().toString());
-                }
-            } catch (VersionParsingException e) {
-                for (VersionPredicate predicate : entry.getValue().getVersionRequirements()) {
-                    if (predicate.getType() != VersionPredicate.Type.ANY) {
-                        result.put(entry.getKey(), entry.getValue().toString());
-                        break;
-                    }
-                }
-            }
-        }
-
-        if (REQUIRE_INSTALLED_MODS_WITH_BLOCKS_AND_ITEMS) {
-            for (Map.Entry<String, ModDependency> entry : MODS_THAT_ADD_BLOCKS_AND_ITEMS.entrySet()) {
-                if (!mods.containsKey(entry.getKey())) {
-                    result.put(entry.getKey(), entry.getValue().toString());
-                }
-            }
-        }
+    /**
+     * @return the mods that clients must prove the contents of
+     */
+    static Set<String> getVerifiedMods() {
+        return new LinkedHashSet<>(ALLOWED_HASHES.keySet());
+    }
 
-        return result;
+    static Map<String, String> getMissing(Map<String, String> mods) {
+        return compile().evaluate(mods).missing;
     }
 
     public static ModDependency unRequire(String modId) {
@@ -193,5 +595,6 @@ public class Config {
 
     public static void setRequireModsThatAddBlocksAndItems(Boolean required) {
         REQUIRE_INSTALLED_MODS_WITH_BLOCKS_AND_ITEMS = required;
+        ++VERSION;
     }
 }
@@ -6,15 +6,13 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
 import net.fabricmc.loader.api.FabricLoader;
 import net.fabricmc.loader.api.ModContainer;
+import net.fabricmc.loader.api.SemanticVersion;
+import net.fabricmc.loader.api.VersionParsingException;
 import net.fabricmc.loader.api.VersionPredicate;
 import net.fabricmc.loader.api.metadata.ModDependency;
 import net.fabricmc.loader.lib.gson.JsonReader;
 import net.fabricmc.loader.lib.gson.JsonToken;
 import net.fabricmc.loader.metadata.ParseMetadataException;
-import net.minecraft.text.ClickEvent;
-import net.minecraft.text.LiteralText;
-import net.minecraft.text.MutableText;
-import net.minecraft.text.Text;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
@@ -41,6 +39,8 @@ public class DependencyUtil {
         MOD_DEPENDENCY_CONSTRUCTOR = MOD_DEPENDENCY_CONSTRUCTOR1;
     }
 
+    private static volatile Map<String, String> MOD_NAMES;
+
     static JsonObject toJsonObject(Map<String, ModDependency> map) {
         JsonObject object = new JsonObject();
 
@@ -56,15 +56,15 @@ public class DependencyUtil {
     }
 
     private static @Nullable JsonElement toJsonElement(ModDependency modDependency) {
-        Set<VersionPredicate> predicates = modDependency.getVersionRequirements();
+        List<String> predicates = getVersionPredicates(modDependency);
 
         if (predicates.size() == 1) {
-            return new JsonPrimitive(predicates.iterator().next().toString());
+            return new JsonPrimitive(predicates.get(0));
         } else if (predicates.size() > 1) {
             JsonArray array = new JsonArray();
 
-            for (VersionPredicate predicate : predicates) {
-                array.add(predicate.toString());
+            for (String predicate : predicates) {
+                array.add(predicate);
             }
 
             return array;
@@ -73,6 +73,19 @@ public class DependencyUtil {
         return null;
     }
 
+    /**
+     * @return the version predicates of the given dependency, as they'd be written in fabric.mod.json
+     */
+    static List<String> getVersionPredicates(ModDependency dependency) {
+        List<String> predicates = new ArrayList<>();
+
+        for (VersionPredicate predicate : dependency.getVersionRequirements()) {
+            predicates.add(predicate.toString());
+        }
+
+        return predicates;
+    }
+
     static void readDependenciesContainer(JsonReader reader, Map<String, ModDependency> modDependencies) throws IOException, ParseMetadataException {
         if (reader.peek() != JsonToken.BEGIN_OBJECT) {
             throw new ParseMetadataException("Dependency container must be an object!", reader);
@@ -144,36 +157,51 @@ public class DependencyUtil {
         }
     }
 
-    static String toString(ModDependency dependency) {
-        String modName = FabricLoader.getInstance().getModContainer(dependency.getModId())
-                .map(c -> c.getMetadata().getName()).orElse(dependency.getModId());
-
-        return String.format("%s %s", modName, dependency);
+    static @Nullable ModDependency dependency(String modId, List<String> versionPredicates) {
+        try {
+            return versionPredicates.isEmpty() ? null : MOD_DEPENDENCY_CONSTRUCTOR.newInstance(modId, versionPredicates);
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException ignored) {
+            return null;
+        }
     }
 
-    static Text getTextWithLinks(Map<String, String> missingMods) {
-        MutableText text = new LiteralText("");
-
-        FabricLoader loader = FabricLoader.getInstance();
+    /**
+     * Versions that aren't semantic only satisfy dependencies that accept any version.
+     */
+    static boolean matches(ModDependency dependency, String version) {
+        try {
+            return dependency.matches(SemanticVersion.parse(version));
+        } catch (VersionParsingException e) {
+            for (VersionPredicate predicate : dependency.getVersionRequirements()) {
+                if (predicate.getType() != VersionPredicate.Type.ANY) {
+                    return false;
+                }
+            }
 
-        for (Map.Entry<String, String> entry : missingMods.entrySet()) {
-            text.append("\n");
+            return true;
+        }
+    }
 
-            loader.getModContainer(entry.getKey()).ifPresent(modContainer -> {
-                text.append(new LiteralText(modContainer.getMetadata().getName() + " "));
-                /* Man, I wish this worked, but the disconnect screen doesn't display links :(
-                Map<String, String> contact = modContainer.getMetadata().getContact().asMap();
+    /**
+     * @return the display name of an installed mod, or null if the mod isn't installed
+     */
+    static @Nullable String getName(String modId) {
+        if (MOD_NAMES == null) {
+            Map<String, String> names = new HashMap<>();
 
-                if (contact.containsKey("homepage")) {
-                    dependencyText.styled(style -> style.withClickEvent(
-                            new ClickEvent(ClickEvent.Action.OPEN_URL, contact.get("homepage")))
-                    );
-                }*/
-            });
+            for (ModContainer container : FabricLoader.getInstance().getAllMods()) {
+                names.put(container.getMetadata().getId(), container.getMetadata().getName());
+            }
 
-            text.append(new LiteralText(entry.getValue()));
+            MOD_NAMES = names;
         }
 
-        return text;
+        return MOD_NAMES.get(modId);
+    }
+
+    static String toString(ModDependency dependency) {
+        String modName = getName(dependency.getModId());
+
+        return (modName == null ? dependency.getModId() : modName) + " " + dependency;
     }
 }
@@ -0,0 +1,122 @@
+package dev.hephaestus.garden.impl;
+
+import net.minecraft.text.LiteralText;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Text;
+
+import java.util.*;
+
+/**
+ * Players that get rejected tend to be rejected for the same few reasons, so the final disconnect messages are cached
+ * by their violations and the policy they were built against. Messages are built on the threads players log in on, so
+ * they only ever read the compiled policy.
+ */
+public class DisconnectMessages {
+    private static final int CAPACITY = 256;
+    private static final Text REQUEST_NOT_UNDERSTOOD = new LiteralText("Please install the Walled Garden mod to play on this server.");
+    private static final Text ALSO_REQUIRED = new LiteralText("The following mods are also required:");
+
+    private static final Map<List<Object>, Text> CACHE = new LinkedHashMap<List<Object>, Text>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Text> eldest) {
+            return this.size() > CAPACITY;
+        }
+    };
+
+    private DisconnectMessages() {
+    }
+
+    /**
+     * @return the message to disconnect a player with, or empty if they didn't violate the policy
+     */
+    static Optional<Text> get(CompiledPolicy policy, String playerName, Map<String, String> notAllowed, Map<String, String> unverified, Map<String, String> missing) {
+        if (notAllowed.isEmpty() && unverified.isEmpty() && missing.isEmpty()) return Optional.empty();
+
+        WalledGarden.logViolations("{} tried to join with disallowed mods:", playerName, notAllowed);
+        WalledGarden.logViolations("{} tried to join with modified mods:", playerName, unverified);
+        WalledGarden.logViolations("{} tried to join without the following mods:", playerName, missing);
+
+        List<Object> key = Arrays.asList(policy.hash, notAllowed, unverified, missing);
+
+        synchronized (CACHE) {
+            Text text = CACHE.get(key);
+
+            if (text != null) return Optional.of(text);
+        }
+
+        List<MutableText> results = new ArrayList<>();
+
+        if (!notAllowed.isEmpty()) results.add(WalledGarden.getBlacklistText(policy, notAllowed));
+        if (!unverified.isEmpty()) results.add(WalledGarden.getIntegrityText(unverified));
+        if (!missing.isEmpty()) results.add(WalledGarden.getRequiredModsText(missing));
+
+        MutableText text = new LiteralText("");
+
+        for (int i = 0; i < results.size(); ++i) {
+            if (i > 0) {
+                text.append(new LiteralText("\n\n"));
+            }
+
+            text.append(results.get(i));
+        }
+
+        synchronized (CACHE) {
+            CACHE.put(key, text);
+        }
+
+        return Optional.of(text);
+    }
+
+    /**
+     * @return the message for clients that don't have Walled Garden installed
+     */
+    static Text notUnderstood(CompiledPolicy policy) {
+        List<Object> key = Collections.singletonList(policy.hash);
+
+        synchronized (CACHE) {
+            Text text = CACHE.get(key);
+
+            if (text != null) return text;
+        }
+
+        MutableText text = REQUEST_NOT_UNDERSTOOD.copy();
+
+        if (policy.hasRequiredMods()) {
+            text.append(new LiteralText("\n").append(ALSO_REQUIRED));
+        }
+
+        text.append(getTextWithLinks(Collections.emptyMap()));
+
+        synchronized (CACHE) {
+            CACHE.put(key, text);
+        }
+
+        return text;
+    }
+
+    static Text getTextWithLinks(Map<String, String> missingMods) {
+        MutableText text = new LiteralText("");
+
+        for (Map.Entry<String, String> entry : missingMods.entrySet()) {
+            text.append("\n");
+
+            String modName = DependencyUtil.getName(entry.getKey());
+
+            if (modName != null) {
+                text.append(new LiteralText(modName + " "));
+                /* Man, I wish this worked, but the disconnect screen doesn't display links :(
+                Map<String, String> contact = modContainer.getMetadata().getContact().asMap();
+
+                if (contact.containsKey("homepage")) {
+                    dependencyText.styled(style -> style.withClickEvent(
+                            new ClickEvent(ClickEvent.Action.OPEN_URL, contact.get("homepage")))
+                    );
+                }*/
+            }
+
+            text.append(new LiteralText(entry.getValue()));
+        }
+
+        return text;
+    }
+}
@@ -0,0 +1,287 @@
+package dev.hephaestus.garden.impl;
+
+import io.netty.buffer.ByteBuf;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Matches mod ids against any number of glob patterns in a single pass over the id. {@code *} matches any sequence of
+ * characters and {@code ?} matches exactly one. All patterns are combined into one NFA, which is turned into a DFA
+ * ahead of time so that matching is one table lookup per character. If the DFA would get too large, the NFA is
+ * simulated directly instead.
+ *
+ * <p>Ids are matched a code point at a time, whether they're a string or UTF-8 straight out of a buffer, so
+ * {@code ?} matches one character either way.
+ */
+public class GlobAutomaton {
+    private static final int MAX_STATES = 1 << 14;
+    private static final int END = -1;
+    private static final int MALFORMED = 0xFFFD;
+
+    static final GlobAutomaton EMPTY = new GlobAutomaton(Collections.emptyList());
+
+    private final List<String> patterns;
+    private final int[] symbols;
+    private final int[] owners;
+    private final int[] asciiClasses = new int[128];
+    private final Map<Integer, Integer> otherClasses = new HashMap<>();
+    private final int classCount;
+    private final BitSet start;
+
+    private int[][] transitions;
+    private int[] accepting;
+    private int dead;
+
+    GlobAutomaton(List<String> patterns) {
+        this.patterns = new ArrayList<>(patterns);
+
+        int positions = 0;
+
+        for (String pattern : patterns) {
+            positions += pattern.codePointCount(0, pattern.length()) + 1;
+        }
+
+        this.symbols = new int[positions];
+        this.owners = new int[positions];
+        this.start = new BitSet(positions);
+
+        int classes = 1;
+        int position = 0;
+
+        for (int i = 0; i < patterns.size(); ++i) {
+            int[] pattern = patterns.get(i).codePoints().toArray();
+
+            this.start.set(position);
+
+            for (int j = 0; j <= pattern.length; ++j, ++position) {
+                int c = j < pattern.length ? pattern[j] : END;
+
+                this.symbols[position] = c;
+                this.owners[position] = i;
+
+                if (c != END && c != '*' && c != '?' && this.classOf(c) == 0) {
+                    if (c < 128) {
+                        this.asciiClasses[c] = classes++;
+                    } else {
+                        this.otherClasses.put(c, classes++);
+                    }
+                }
+            }
+        }
+
+        this.classCount = classes;
+        this.closure(this.start);
+        this.compile();
+    }
+
+    static boolean isPattern(String key) {
+        return key.indexOf('*') >= 0 || key.indexOf('?') >= 0;
+    }
+
+    /**
+     * @return the keys that are patterns rather than plain mod ids
+     */
+    static List<String> getPatterns(Collection<String> keys) {
+        List<String> patterns = new ArrayList<>();
+
+        for (String key : keys) {
+            if (isPattern(key)) patterns.add(key);
+        }
+
+        return patterns;
+    }
+
+    /**
+     * @return whether the patterns were compiled to a DFA, rather than being too complex to
+     */
+    boolean isCompiled() {
+        return this.transitions != null;
+    }
+
+    /**
+     * @return the first pattern matching the given mod id, or null if none do
+     */
+    @Nullable String match(String modId) {
+        if (this.patterns.isEmpty()) return null;
+
+        int index;
+
+        if (this.transitions != null) {
+            int state = 0;
+
+            for (int i = 0; i < modId.length() && state != this.dead; i += Character.charCount(modId.codePointAt(i))) {
+                state = this.transitions[state][this.classOf(modId.codePointAt(i))];
+            }
+
+            index = this.accepting[state];
+        } else {
+            BitSet state = (BitSet) this.start.clone();
+
+            for (int i = 0; i < modId.length() && !state.isEmpty(); i += Character.charCount(modId.codePointAt(i))) {
+                state = this.step(state, this.classOf(modId.codePointAt(i)));
+            }
+
+            index = this.accept(state);
+        }
+
+        return index < 0 ? null : this.patterns.get(index);
+    }
+
+    /**
+     * Matches a UTF-8 mod id straight out of a buffer.
+     *
+     * @return the first pattern matching the id, or null if none do
+     */
+    @Nullable String match(ByteBuf buf, int offset, int length) {
+        if (this.patterns.isEmpty()) return null;
+
+        int index;
+
+        if (this.transitions != null) {
+            int state = 0;
+
+            for (int i = 0; i < length && state != this.dead; i += sequenceLength(buf, offset + i, length - i)) {
+                state = this.transitions[state][this.classOf(codePointAt(buf, offset + i, length - i))];
+            }
+
+            index = this.accepting[state];
+        } else {
+            BitSet state = (BitSet) this.start.clone();
+
+            for (int i = 0; i < length && !state.isEmpty(); i += sequenceLength(buf, offset + i, length - i)) {
+                state = this.step(state, this.classOf(codePointAt(buf, offset + i, length - i)));
+            }
+
+            index = this.accept(state);
+        }
+
+        return index < 0 ? null : this.patterns.get(index);
+    }
+
+    private void compile() {
+        Map<BitSet, Integer> ids = new HashMap<>();
+        List<BitSet> states = new ArrayList<>();
+        List<int[]> transitions = new ArrayList<>();
+
+        ids.put(this.start, 0);
+        states.add(this.start);
+
+        for (int i = 0; i < states.size(); ++i) {
+            int[] row = new int[this.classCount];
+
+            for (int c = 0; c < this.classCount; ++c) {
+                BitSet next = this.step(states.get(i), c);
+                Integer id = ids.get(next);
+
+                if (id == null) {
+                    if (states.size() >= MAX_STATES) return;
+
+                    id = states.size();
+                    ids.put(next, id);
+                    states.add(next);
+                }
+
+                row[c] = id;
+            }
+
+            transitions.add(row);
+        }
+
+        this.transitions = transitions.toArray(new int[0][]);
+        this.accepting = new int[states.size()];
+
+        for (int i = 0; i < states.size(); ++i) {
+            this.accepting[i] = this.accept(states.get(i));
+        }
+
+        Integer dead = ids.get(new BitSet());
+        this.dead = dead == null ? -1 : dead;
+    }
+
+    private BitSet step(BitSet state, int c) {
+        BitSet next = new BitSet(this.symbols.length);
+
+        for (int position = state.nextSetBit(0); position >= 0; position = state.nextSetBit(position + 1)) {
+            int symbol = this.symbols[position];
+
+            if (symbol == '*') {
+                next.set(position);
+            } else if (symbol == '?' || (symbol != END && c != 0 && this.classOf(symbol) == c)) {
+                next.set(position + 1);
+            }
+        }
+
+        this.closure(next);
+
+        return next;
+    }
+
+    /**
+     * A star may match nothing, so the position after it is active whenever the star is.
+     */
+    private void closure(BitSet state) {
+        for (int position = state.nextSetBit(0); position >= 0; position = state.nextSetBit(position + 1)) {
+            if (this.symbols[position] == '*') {
+                state.set(position + 1);
+            }
+        }
+    }
+
+    private int accept(BitSet state) {
+        for (int position = state.nextSetBit(0); position >= 0; position = state.nextSetBit(position + 1)) {
+            if (this.symbols[position] == END) {
+                return this.owners[position];
+            }
+        }
+
+        return -1;
+    }
+
+    private int classOf(int codePoint) {
+        if (codePoint >= 0 && codePoint < 128) return this.asciiClasses[codePoint];
+
+        Integer result = this.otherClasses.get(codePoint);
+        return result == null ? 0 : result;
+    }
+
+    /**
+     * @return the number of bytes in the UTF-8 sequence at the given index, or 1 if it's malformed
+     */
+    private static int sequenceLength(ByteBuf buf, int index, int remaining) {
+        int lead = buf.getByte(index);
+
+        if (lead >= 0) return 1;
+
+        int length = (lead & 0xE0) == 0xC0 ? 2 : (lead & 0xF0) == 0xE0 ? 3 : (lead & 0xF8) == 0xF0 ? 4 : 1;
+
+        if (length > remaining) return 1;
+
+        for (int i = 1; i < length; ++i) {
+            if ((buf.getByte(index + i) & 0xC0) != 0x80) return 1;
+        }
+
+        return length;
+    }
+
+    /**
+     * Malformed sequences are read as one replacement character per byte.
+     */
+    private static int codePointAt(ByteBuf buf, int index, int remaining) {
+        int lead = buf.getByte(index);
+
+        if (lead >= 0) return lead;
+
+        int length = sequenceLength(buf, index, remaining);
+
+        if (length == 1) return MALFORMED;
+
+        int codePoint = lead & (0x7F >> length);
+
+        for (int i = 1; i < length; ++i) {
+            codePoint = (codePoint << 6) | (buf.getByte(index + i) & 0x3F);
+        }
+
+        return codePoint;
+    }
+}
@@ -0,0 +1,282 @@
+package dev.hephaestus.garden.impl;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import net.fabricmc.loader.api.FabricLoader;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps every distinct mod list players have joined with, so that a policy can be tried against them with
+ * {@link PolicySimulator} before it's enforced. Mod lists are stored once per fingerprint, and a player is only written
+ * down again when they join with a different list than last time. Writing happens on a background thread.
+ *
+ * <p>The file is a header followed by records, each starting with its type: a mod list is its fingerprint, whether
+ * the client was asked for every mod, and the response exactly as the client sent it, and a player is their name
+ * followed by the fingerprint of their list. A log in any other format is started over when opened.
+ */
+public class HandshakeLog {
+    private static final int MAGIC = 0x57474853;
+    private static final int FORMAT = 3;
+    private static final int HEADER_BYTES = 8;
+
+    private static final byte LIST = 0;
+    private static final byte PLAYER = 1;
+
+    private static final Set<HashCode> LISTS = ConcurrentHashMap.newKeySet();
+    private static final Map<String, HashCode> PLAYERS = new ConcurrentHashMap<>();
+
+    private static ExecutorService EXECUTOR;
+    private static DataOutputStream OUT;
+
+    private HandshakeLog() {
+    }
+
+    static Path getFile() {
+        return FabricLoader.getInstance().getConfigDir().resolve("walled-garden-handshakes.dat");
+    }
+
+    /**
+     * Picks up where the existing log left off, dropping anything after the last complete record. Called whenever a
+     * server starts, since an integrated server can be started again after the last one closed the log.
+     */
+    static void open() {
+        if (EXECUTOR != null) return;
+
+        Path path = getFile();
+
+        LISTS.clear();
+        PLAYERS.clear();
+
+        try {
+            long length = HEADER_BYTES;
+
+            if (Files.exists(path)) {
+                length = scan(path, LISTS, PLAYERS);
+            }
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                if (length == 0 || channel.size() < HEADER_BYTES) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(FORMAT);
+                    header.flip();
+
+                    channel.truncate(0);
+                    channel.write(header, 0);
+                    length = HEADER_BYTES;
+                }
+
+                channel.truncate(length);
+            }
+
+            OUT = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.APPEND)));
+            EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Walled Garden Handshake Log");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            WalledGarden.LOG.info("Recording handshakes to {} ({} mod lists, {} players so far)", path, LISTS.size(), PLAYERS.size());
+        } catch (IOException e) {
+            WalledGarden.LOG.error("Failed to open handshake log {}", path, e);
+        }
+    }
+
+    static void close() {
+        if (EXECUTOR == null) return;
+
+        EXECUTOR.shutdown();
+
+        try {
+            EXECUTOR.awaitTermination(10, TimeUnit.SECONDS);
+            OUT.close();
+        } catch (InterruptedException | IOException e) {
+            WalledGarden.LOG.warn("Failed to close handshake log", e);
+        }
+
+        EXECUTOR = null;
+    }
+
+    /**
+     * Records the response a player sent to our mod validation request.
+     *
+     * @param complete whether the client was asked for every mod, rather than only those the policy mentioned
+     */
+    static void record(String playerName, byte[] response, boolean complete) {
+        if (EXECUTOR == null) return;
+
+        HashCode fingerprint = fingerprint(response, complete);
+
+        if (fingerprint.equals(PLAYERS.put(playerName, fingerprint))) return;
+
+        // A new list has to be written before anyone who joined with it
+        synchronized (LISTS) {
+            boolean newList = LISTS.add(fingerprint);
+
+            EXECUTOR.execute(() -> {
+                try {
+                    if (newList) {
+                        writeList(OUT, fingerprint, response, complete);
+                    }
+
+                    OUT.writeByte(PLAYER);
+                    OUT.writeUTF(playerName);
+                    OUT.write(fingerprint.asBytes());
+                    OUT.flush();
+                } catch (IOException e) {
+                    WalledGarden.LOG.warn("Failed to record handshake of {}", playerName, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Reads a handshake log into memory. Doesn't need a running game, so that it can be used by the standalone
+     * simulator.
+     */
+    static Corpus load(Path path) throws IOException {
+        Corpus corpus = new Corpus();
+        Map<HashCode, Integer> indices = new HashMap<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                throw new IOException("Not a handshake log: " + path);
+            }
+
+            while (true) {
+                int type = in.read();
+
+                if (type == LIST) {
+                    HashCode fingerprint = readFingerprint(in);
+                    boolean complete = in.readBoolean();
+                    byte[] response = new byte[in.readInt()];
+                    in.readFully(response);
+
+                    indices.put(fingerprint, corpus.lists.size());
+
+                    if (complete) corpus.complete.set(corpus.lists.size());
+
+                    corpus.lists.add(response);
+                } else if (type == PLAYER) {
+                    String playerName = in.readUTF();
+                    Integer index = indices.get(readFingerprint(in));
+
+                    if (index != null) {
+                        corpus.players.put(playerName, index);
+                    }
+                } else {
+                    break;
+                }
+            }
+        } catch (EOFException ignored) {
+            // The last record was still being written
+        }
+
+        return corpus;
+    }
+
+    /**
+     * @return the length of the log up to the end of its last complete record, or 0 if it isn't a log we can append to
+     */
+    private static long scan(Path path, Set<HashCode> lists, Map<String, HashCode> players) throws IOException {
+        long length = 0;
+
+        try (CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(path)));
+             DataInputStream in = new DataInputStream(counter)) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) return 0;
+
+            length = counter.count;
+
+            while (true) {
+                int type = in.read();
+
+                if (type == LIST) {
+                    HashCode fingerprint = readFingerprint(in);
+                    in.readBoolean();
+                    int responseLength = in.readInt();
+
+                    if (in.skipBytes(responseLength) != responseLength) break;
+
+                    lists.add(fingerprint);
+                } else if (type == PLAYER) {
+                    players.put(in.readUTF(), readFingerprint(in));
+                } else {
+                    break;
+                }
+
+                length = counter.count;
+            }
+        } catch (EOFException ignored) {
+            // Anything after the last complete record is dropped
+        }
+
+        return length;
+    }
+
+    /**
+     * The same list is kept twice if it was sent both in full and in part, since only one of them tells us what's
+     * missing.
+     */
+    private static HashCode fingerprint(byte[] response, boolean complete) {
+        return Hashing.murmur3_128().newHasher().putBoolean(complete).putBytes(response).hash();
+    }
+
+    private static void writeList(DataOutput out, HashCode fingerprint, byte[] response, boolean complete) throws IOException {
+        out.writeByte(LIST);
+        out.write(fingerprint.asBytes());
+        out.writeBoolean(complete);
+        out.writeInt(response.length);
+        out.write(response);
+    }
+
+    private static HashCode readFingerprint(DataInput in) throws IOException {
+        byte[] bytes = new byte[16];
+        in.readFully(bytes);
+
+        return HashCode.fromBytes(bytes);
+    }
+
+    static class Corpus {
+        final List<byte[]> lists = new ArrayList<>();
+        final BitSet complete = new BitSet();
+        final Map<String, Integer> players = new LinkedHashMap<>();
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result >= 0) ++this.count;
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            if (result > 0) this.count += result;
+            return result;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long result = super.skip(n);
+            this.count += result;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package dev.hephaestus.garden.impl;
+
+import com.google.common.hash.HashCode;
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+import net.fabricmc.loader.api.FabricLoader;
+import net.fabricmc.loader.api.ModContainer;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Content hashes of mod jars, persisted between launches. Entries are keyed by path, size and modification time, so
+ * only jars that were added or changed since the last launch need to be read.
+ */
+@Environment(EnvType.CLIENT)
+public class JarHashCache {
+    private static final Path CACHE_FILE = FabricLoader.getInstance().getGameDir().resolve(".walled-garden").resolve("jar-hashes.dat");
+    private static final int FORMAT = 1;
+    private static final int MAX_MAPPED_CHUNK = 64 * 1024 * 1024;
+
+    private JarHashCache() {
+    }
+
+    /**
+     * Hashes the jars of the given mods in the background.
+     *
+     * @return a future holding the hash of each mod's jar, in order, or null for mods that aren't loaded from a jar
+     */
+    static CompletableFuture<HashCode[]> hash(List<ModContainer> mods) {
+        return CompletableFuture.supplyAsync(() -> {
+            Map<String, Entry> cache = read();
+            Map<String, Entry> current = new ConcurrentHashMap<>();
+            HashCode[] hashes = new HashCode[mods.size()];
+            List<Integer> misses = new ArrayList<>();
+
+            for (int i = 0; i < mods.size(); ++i) {
+                Path jar = getJar(mods.get(i));
+
+                if (jar == null) continue;
+
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+                    Entry entry = cache.get(jar.toString());
+
+                    if (entry != null && entry.size == attributes.size() && entry.modified == attributes.lastModifiedTime().toMillis()) {
+                        hashes[i] = entry.hash;
+                        current.put(jar.toString(), entry);
+                    } else {
+                        misses.add(i);
+                    }
+                } catch (IOException e) {
+                    WalledGarden.LOG.warn("Failed to read attributes of {}", jar, e);
+                }
+            }
+
+            misses.parallelStream().forEach(i -> {
+                Path jar = getJar(mods.get(i));
+
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+                    HashCode hash = hash(jar);
+
+                    hashes[i] = hash;
+                    current.put(jar.toString(), new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), hash));
+                } catch (IOException e) {
+                    WalledGarden.LOG.warn("Failed to hash {}", jar, e);
+                }
+            });
+
+            // Rewrite the cache if anything was hashed or a jar was removed
+            if (!misses.isEmpty() || current.size() != cache.size()) {
+                write(current);
+            }
+
+            return hashes;
+        });
+    }
+
+    static HashCode hash(Path jar) throws IOException {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ)) {
+            long size = channel.size();
+
+            for (long position = 0; position < size; position += MAX_MAPPED_CHUNK) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_MAPPED_CHUNK, size - position));
+                digest.update(buffer);
+            }
+        }
+
+        return HashCode.fromBytes(digest.digest());
+    }
+
+    private static @Nullable Path getJar(ModContainer container) {
+        if (container instanceof net.fabricmc.loader.ModContainer) {
+            try {
+                Path path = Paths.get(((net.fabricmc.loader.ModContainer) container).getOriginUrl().toURI());
+
+                return Files.isRegularFile(path) ? path : null;
+            } catch (URISyntaxException | IllegalArgumentException | FileSystemNotFoundException ignored) {
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    private static Map<String, Entry> read() {
+        Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+        if (Files.exists(CACHE_FILE)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(CACHE_FILE)))) {
+                if (in.readInt() == FORMAT) {
+                    int count = in.readInt();
+
+                    for (int i = 0; i < count; ++i) {
+                        String path = in.readUTF();
+                        long size = in.readLong();
+                        long modified = in.readLong();
+                        byte[] hash = new byte[in.readUnsignedByte()];
+                        in.readFully(hash);
+
+                        cache.put(path, new Entry(size, modified, HashCode.fromBytes(hash)));
+                    }
+                }
+            } catch (IOException e) {
+                WalledGarden.LOG.warn("Failed to read jar hash cache", e);
+                cache.clear();
+            }
+        }
+
+        return cache;
+    }
+
+    private static void write(Map<String, Entry> cache) {
+        try {
+            Files.createDirectories(CACHE_FILE.getParent());
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(CACHE_FILE)))) {
+                out.writeInt(FORMAT);
+                out.writeInt(cache.size());
+
+                for (Map.Entry<String, Entry> entry : cache.entrySet()) {
+                    byte[] hash = entry.getValue().hash.asBytes();
+
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().size);
+                    out.writeLong(entry.getValue().modified);
+                    out.writeByte(hash.length);
+                    out.write(hash);
+                }
+            }
+        } catch (IOException e) {
+            WalledGarden.LOG.warn("Failed to write jar hash cache", e);
+        }
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long modified;
+        private final HashCode hash;
+
+        private Entry(long size, long modified, HashCode hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+}
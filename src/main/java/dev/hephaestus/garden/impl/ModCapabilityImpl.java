@@ -0,0 +1,99 @@
+package dev.hephaestus.garden.impl;
+
+import dev.hephaestus.garden.api.ModCapability;
+import net.fabricmc.loader.api.metadata.ModDependency;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Every capability gets a dense index, and each player keeps a bitset of which capabilities they've been checked for
+ * and which of those they have.
+ */
+public class ModCapabilityImpl implements ModCapability {
+    private static final Map<List<String>, ModCapabilityImpl> CAPABILITIES = new HashMap<>();
+    private static volatile ModCapabilityImpl[] ALL = new ModCapabilityImpl[0];
+
+    final int index;
+    private final String modId;
+    private final @Nullable ModDependency dependency;
+
+    private ModCapabilityImpl(int index, String modId, @Nullable ModDependency dependency) {
+        this.index = index;
+        this.modId = modId;
+        this.dependency = dependency;
+    }
+
+    public static synchronized ModCapability get(String modId, @Nullable String versionRange) {
+        List<String> key = Arrays.asList(modId, versionRange);
+        ModCapabilityImpl capability = CAPABILITIES.get(key);
+
+        if (capability == null) {
+            ModDependency dependency = null;
+
+            if (versionRange != null) {
+                dependency = DependencyUtil.dependency(modId, Collections.singletonList(versionRange));
+
+                if (dependency == null) {
+                    throw new IllegalArgumentException(String.format("Invalid version range %s for %s", versionRange, modId));
+                }
+            }
+
+            capability = new ModCapabilityImpl(ALL.length, modId, dependency);
+            CAPABILITIES.put(key, capability);
+
+            ModCapabilityImpl[] all = Arrays.copyOf(ALL, ALL.length + 1);
+            all[capability.index] = capability;
+            ALL = all;
+
+            // Players have to report every mod from now on, not just the ones the policy mentions
+            if (all.length == 1) Config.invalidate();
+        }
+
+        return capability;
+    }
+
+    static boolean isAnyRegistered() {
+        return ALL.length > 0;
+    }
+
+    /**
+     * @return the resolved and present bits of every capability for the given mod list, with a pair of words for every
+     * 64 capabilities
+     */
+    static long[] resolve(Map<String, String> mods) {
+        ModCapabilityImpl[] all = ALL;
+        long[] bits = new long[((all.length + 63) >>> 6) << 1];
+
+        for (ModCapabilityImpl capability : all) {
+            resolve(bits, capability, mods);
+        }
+
+        return bits;
+    }
+
+    static void resolve(long[] bits, ModCapabilityImpl capability, Map<String, String> mods) {
+        int word = (capability.index >>> 6) << 1;
+        long bit = 1L << capability.index;
+
+        bits[word] |= bit;
+
+        if (capability.test(mods.get(capability.modId))) {
+            bits[word + 1] |= bit;
+        }
+    }
+
+    private boolean test(@Nullable String version) {
+        return version != null && (this.dependency == null || DependencyUtil.matches(this.dependency, version));
+    }
+
+    @Override
+    public String getModId() {
+        return this.modId;
+    }
+
+    @Override
+    public String toString() {
+        return this.dependency == null ? this.modId : DependencyUtil.toString(this.dependency);
+    }
+}
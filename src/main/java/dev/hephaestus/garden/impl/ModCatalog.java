@@ -0,0 +1,329 @@
+package dev.hephaestus.garden.impl;
+
+import net.fabricmc.loader.api.FabricLoader;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Aggregates the mods players join with in a fixed amount of memory. How often each mod and version was seen is
+ * tracked in a count-min sketch, and how many different players used each mod in a HyperLogLog. Recording a mod list
+ * takes no locks and only allocates the first time a mod or version is seen.
+ *
+ * <p>Only a limited number of mods get an entry of their own. Once they're all taken, a mod that has been seen more
+ * often than the least seen mod with an entry takes its place, so mods that were only ever seen once can't keep common
+ * ones out for good.
+ */
+public class ModCatalog {
+    private static final Path CATALOG_FILE = FabricLoader.getInstance().getConfigDir().resolve("walled-garden-catalog.dat");
+    private static final int FORMAT = 1;
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH_BITS = 14;
+    private static final int WIDTH = 1 << WIDTH_BITS;
+
+    private static final int REGISTER_BITS = 8;
+    private static final int REGISTERS = 1 << REGISTER_BITS;
+
+    private static final int MAX_MODS = 2048;
+    private static final int MAX_VERSIONS = 8;
+
+    private static final AtomicLongArray COUNTS = new AtomicLongArray(DEPTH * WIDTH);
+    private static final Map<String, Entry> MODS = new ConcurrentHashMap<>();
+    private static final Entry PLAYERS = new Entry();
+
+    // No tracked mod has been seen fewer times than this, so mods seen at most this often can't replace one
+    private static volatile long EVICTION_THRESHOLD = 0;
+
+    private ModCatalog() {
+    }
+
+    static void record(String playerName, Map<String, String> mods) {
+        long player = hash(playerName, 0);
+
+        PLAYERS.add(player);
+
+        for (Map.Entry<String, String> mod : mods.entrySet()) {
+            String modId = mod.getKey();
+            String version = mod.getValue();
+            long id = hash(modId, 0);
+
+            increment(id);
+            increment(mix(id, hash(version, id)));
+
+            Entry entry = MODS.get(modId);
+
+            if (entry == null) {
+                if (MODS.size() < MAX_MODS) {
+                    entry = MODS.computeIfAbsent(modId, key -> new Entry());
+                } else {
+                    entry = replaceLeastSeen(modId, estimate(id));
+                }
+            }
+
+            if (entry != null) {
+                entry.add(player);
+
+                if (entry.versions.size() < MAX_VERSIONS && !entry.versions.containsKey(version)) {
+                    entry.versions.put(version, Boolean.TRUE);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives the given mod the entry of the least seen mod, if the given mod has been seen more often.
+     *
+     * @return the new entry, or null if every tracked mod has been seen at least as often
+     */
+    private static @Nullable Entry replaceLeastSeen(String modId, long count) {
+        if (count <= EVICTION_THRESHOLD) return null;
+
+        synchronized (MODS) {
+            String leastSeen = null;
+            long least = Long.MAX_VALUE;
+            long secondLeast = Long.MAX_VALUE;
+
+            for (String tracked : MODS.keySet()) {
+                long estimate = estimate(hash(tracked, 0));
+
+                if (estimate < least) {
+                    secondLeast = least;
+                    least = estimate;
+                    leastSeen = tracked;
+                } else if (estimate < secondLeast) {
+                    secondLeast = estimate;
+                }
+            }
+
+            if (leastSeen == null || count <= least) {
+                EVICTION_THRESHOLD = least;
+                return null;
+            }
+
+            MODS.remove(leastSeen);
+            EVICTION_THRESHOLD = Math.min(secondLeast, count);
+
+            return MODS.computeIfAbsent(modId, key -> new Entry());
+        }
+    }
+
+    /**
+     * @return the most commonly seen mods, most common first
+     */
+    static List<Row> top(int count) {
+        List<Row> rows = new ArrayList<>();
+
+        for (Map.Entry<String, Entry> entry : MODS.entrySet()) {
+            rows.add(new Row(entry.getKey(), estimate(hash(entry.getKey(), 0)), entry.getValue().estimate()));
+        }
+
+        rows.sort((a, b) -> Long.compare(b.count, a.count));
+
+        return rows.size() > count ? rows.subList(0, count) : rows;
+    }
+
+    static long getPlayerCount() {
+        return PLAYERS.estimate();
+    }
+
+    /**
+     * Writes every tracked mod and version as CSV in the background. Recording can carry on while it's being written.
+     */
+    static CompletableFuture<Void> export(Path path) {
+        return CompletableFuture.runAsync(() -> {
+            try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+                writer.write("mod_id,version,joins,players\n");
+
+                for (Map.Entry<String, Entry> entry : MODS.entrySet()) {
+                    long id = hash(entry.getKey(), 0);
+                    long players = entry.getValue().estimate();
+
+                    PolicyReport.writeCsv(writer, entry.getKey(), "", Long.toString(estimate(id)), Long.toString(players));
+
+                    for (String version : entry.getValue().versions.keySet()) {
+                        PolicyReport.writeCsv(writer, entry.getKey(), version, Long.toString(estimate(mix(id, hash(version, id)))), "");
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    static void read() {
+        if (!Files.exists(CATALOG_FILE)) return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(CATALOG_FILE)))) {
+            if (in.readInt() != FORMAT) return;
+
+            for (int i = 0; i < COUNTS.length(); ++i) {
+                COUNTS.set(i, in.readLong());
+            }
+
+            PLAYERS.read(in);
+
+            int count = in.readInt();
+
+            for (int i = 0; i < count; ++i) {
+                Entry entry = new Entry();
+                MODS.put(in.readUTF(), entry);
+                entry.read(in);
+
+                int versions = in.readUnsignedByte();
+
+                for (int j = 0; j < versions; ++j) {
+                    entry.versions.put(in.readUTF(), Boolean.TRUE);
+                }
+            }
+        } catch (IOException e) {
+            WalledGarden.LOG.warn("Failed to read mod catalog", e);
+        }
+    }
+
+    /**
+     * Writes the catalog to disk in the background.
+     */
+    static CompletableFuture<Void> save() {
+        return CompletableFuture.runAsync(() -> {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(CATALOG_FILE)))) {
+                out.writeInt(FORMAT);
+
+                for (int i = 0; i < COUNTS.length(); ++i) {
+                    out.writeLong(COUNTS.get(i));
+                }
+
+                PLAYERS.write(out);
+
+                List<Map.Entry<String, Entry>> entries = new ArrayList<>(MODS.entrySet());
+                out.writeInt(entries.size());
+
+                for (Map.Entry<String, Entry> entry : entries) {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().write(out);
+
+                    List<String> versions = new ArrayList<>(entry.getValue().versions.keySet());
+                    out.writeByte(versions.size());
+
+                    for (String version : versions) {
+                        out.writeUTF(version);
+                    }
+                }
+            } catch (IOException e) {
+                WalledGarden.LOG.warn("Failed to save mod catalog", e);
+            }
+        });
+    }
+
+    private static void increment(long hash) {
+        for (int row = 0; row < DEPTH; ++row) {
+            COUNTS.incrementAndGet(row * WIDTH + column(hash, row));
+        }
+    }
+
+    private static long estimate(long hash) {
+        long result = Long.MAX_VALUE;
+
+        for (int row = 0; row < DEPTH; ++row) {
+            result = Math.min(result, COUNTS.get(row * WIDTH + column(hash, row)));
+        }
+
+        return result;
+    }
+
+    private static int column(long hash, int row) {
+        return (int) (mix(hash, row + 1) >>> (64 - WIDTH_BITS));
+    }
+
+    /**
+     * Hashes a string without encoding it to bytes first.
+     */
+    private static long hash(String string, long seed) {
+        long hash = seed ^ 0xCBF29CE484222325L;
+
+        for (int i = 0; i < string.length(); ++i) {
+            hash = (hash ^ string.charAt(i)) * 0x100000001B3L;
+        }
+
+        return mix(hash, string.length());
+    }
+
+    private static long mix(long a, long b) {
+        long hash = a ^ (b * 0x9E3779B97F4A7C15L);
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+
+        return hash ^ (hash >>> 33);
+    }
+
+    static class Row {
+        final String modId;
+        final long count;
+        final long players;
+
+        Row(String modId, long count, long players) {
+            this.modId = modId;
+            this.count = count;
+            this.players = players;
+        }
+    }
+
+    /**
+     * A HyperLogLog counting distinct players, plus the first few versions we've seen of a mod.
+     */
+    private static class Entry {
+        private final AtomicIntegerArray registers = new AtomicIntegerArray(REGISTERS);
+        private final Map<String, Boolean> versions = new ConcurrentHashMap<>();
+
+        void add(long hash) {
+            int register = (int) (hash >>> (64 - REGISTER_BITS));
+            int rank = Long.numberOfLeadingZeros((hash << REGISTER_BITS) | (1L << (REGISTER_BITS - 1))) + 1;
+            int current;
+
+            while (rank > (current = this.registers.get(register))) {
+                if (this.registers.compareAndSet(register, current, rank)) break;
+            }
+        }
+
+        long estimate() {
+            double sum = 0;
+            int zeros = 0;
+
+            for (int i = 0; i < REGISTERS; ++i) {
+                int value = this.registers.get(i);
+                sum += 1.0 / (1L << value);
+
+                if (value == 0) ++zeros;
+            }
+
+            double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+            double estimate = alpha * REGISTERS * REGISTERS / sum;
+
+            // Small range correction
+            if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+                estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+            }
+
+            return Math.round(estimate);
+        }
+
+        void read(DataInput in) throws IOException {
+            for (int i = 0; i < REGISTERS; ++i) {
+                this.registers.set(i, in.readUnsignedByte());
+            }
+        }
+
+        void write(DataOutput out) throws IOException {
+            for (int i = 0; i < REGISTERS; ++i) {
+                out.writeByte(this.registers.get(i));
+            }
+        }
+    }
+}
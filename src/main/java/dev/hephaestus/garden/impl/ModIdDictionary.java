@@ -0,0 +1,36 @@
+package dev.hephaestus.garden.impl;
+
+import java.util.Collection;
+
+/**
+ * Gives every mod id a policy mentions a dense id that stays the same for as long as the server runs, so that policies
+ * compiled at different times agree on which bit stands for which mod. Ids are never removed. Each policy keeps the
+ * snapshot it was compiled against, so looking ids up never waits on another policy being compiled.
+ */
+public class ModIdDictionary {
+    private static volatile ByteKeyIndex SNAPSHOT = new ByteKeyIndex();
+
+    private ModIdDictionary() {
+    }
+
+    /**
+     * @return a snapshot of the dictionary that contains all of the given mod ids
+     */
+    static synchronized ByteKeyIndex intern(Collection<String> modIds) {
+        ByteKeyIndex snapshot = SNAPSHOT;
+
+        for (String modId : modIds) {
+            if (snapshot.get(modId) < 0) {
+                ByteKeyIndex copy = snapshot.copy();
+
+                for (String id : modIds) copy.add(id);
+
+                SNAPSHOT = copy;
+
+                return copy;
+            }
+        }
+
+        return snapshot;
+    }
+}
@@ -0,0 +1,70 @@
+package dev.hephaestus.garden.impl;
+
+import com.mojang.brigadier.suggestion.SuggestionsBuilder;
+import net.fabricmc.loader.api.FabricLoader;
+import net.fabricmc.loader.api.ModContainer;
+
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * A sorted index of every mod id we know of, used to suggest ids for commands. Ids come from the mods installed on
+ * the server, from configured rules and from the mod lists clients report when joining.
+ */
+public class ModIdIndex {
+    private static final int MAX_SUGGESTIONS = 50;
+    private static final int MAX_OBSERVED_IDS = 10000;
+
+    private static final NavigableSet<String> IDS = new ConcurrentSkipListSet<>();
+    private static final AtomicInteger OBSERVED = new AtomicInteger();
+
+    private ModIdIndex() {
+    }
+
+    static void init() {
+        for (ModContainer container : FabricLoader.getInstance().getAllMods()) {
+            IDS.add(container.getMetadata().getId());
+        }
+    }
+
+    /**
+     * Indexes an id from a configured rule, which is always kept.
+     */
+    static void add(String modId) {
+        IDS.add(modId);
+    }
+
+    /**
+     * Indexes an id a client reported. Clients can report whatever they like, so only so many of these are kept.
+     */
+    static void observe(String modId) {
+        if (OBSERVED.get() < MAX_OBSERVED_IDS && !IDS.contains(modId) && IDS.add(modId)) {
+            OBSERVED.incrementAndGet();
+        }
+    }
+
+    /**
+     * Suggests known ids that start with what has been typed so far.
+     */
+    static void suggest(SuggestionsBuilder builder, Predicate<String> filter) {
+        String prefix = builder.getRemaining().toLowerCase(Locale.ROOT);
+
+        if (prefix.startsWith("\"")) {
+            prefix = prefix.substring(1);
+        }
+
+        int count = 0;
+
+        for (String modId : IDS.tailSet(prefix, true)) {
+            if (!modId.startsWith(prefix) || count >= MAX_SUGGESTIONS) break;
+
+            if (filter.test(modId)) {
+                builder.suggest(modId);
+                ++count;
+            }
+        }
+    }
+}
@@ -1,15 +1,22 @@
 package dev.hephaestus.garden.impl;
 
+import dev.hephaestus.garden.api.ModCapability;
 import dev.hephaestus.garden.api.PlayerModVersionsContainer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
 
+/**
+ * The mod list is replaced as a whole whenever a player joins, so readers on other threads always see a complete list.
+ */
 public class PlayerModVersionsContainerImpl implements PlayerModVersionsContainer {
-    private final Map<String, String> versions = new HashMap<>();
+    private volatile Map<String, String> versions = Collections.emptyMap();
+    private volatile long[] capabilities = new long[0];
+    private volatile boolean complete = true;
 
     @Override
     public @Nullable String getVersion(String modId) {
@@ -21,8 +28,57 @@ public class PlayerModVersionsContainerImpl implements PlayerModVersionsContaine
         return this.versions;
     }
 
-    public void put(String modId, String version) {
-        this.versions.put(modId, version);
+    @Override
+    public boolean has(ModCapability capability) {
+        int index = ((ModCapabilityImpl) capability).index;
+        int word = (index >>> 6) << 1;
+        long bit = 1L << index;
+        long[] capabilities = this.capabilities;
+
+        if (word < capabilities.length && (capabilities[word] & bit) != 0) {
+            return (capabilities[word + 1] & bit) != 0;
+        }
+
+        return this.resolve((ModCapabilityImpl) capability);
+    }
+
+    /**
+     * Capabilities created after the player joined are resolved the first time they're checked.
+     */
+    private synchronized boolean resolve(ModCapabilityImpl capability) {
+        int word = (capability.index >>> 6) << 1;
+        long[] capabilities = Arrays.copyOf(this.capabilities, Math.max(this.capabilities.length, word + 2));
+
+        ModCapabilityImpl.resolve(capabilities, capability, this.versions);
+        this.capabilities = capabilities;
+
+        return (capabilities[word + 1] & (1L << capability.index)) != 0;
+    }
+
+    /**
+     * Replaces the mods the player joined with.
+     *
+     * @param complete false if the player only reported the mods our policy asked about
+     */
+    public synchronized void set(Map<String, String> versions, boolean complete) {
+        this.versions = Collections.unmodifiableMap(versions);
+        this.capabilities = ModCapabilityImpl.resolve(versions);
+        this.complete = complete;
+    }
+
+    /**
+     * @return false if the player only reported the mods our policy asked about when they joined
+     */
+    public boolean isComplete() {
+        return this.complete;
+    }
+
+    /**
+     * @return whether the player would have told us about the given mod when they joined if they had it installed. Mods
+     * that are always allowed are only reported when our rules mentioned them at the time.
+     */
+    public boolean wouldHaveReported(String modId) {
+        return this.complete && !WalledGarden.isDefault(modId);
     }
 
     @NotNull
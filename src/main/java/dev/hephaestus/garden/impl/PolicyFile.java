@@ -0,0 +1,116 @@
+package dev.hephaestus.garden.impl;
+
+import com.google.common.hash.HashCode;
+import net.fabricmc.loader.api.metadata.ModDependency;
+import net.fabricmc.loader.lib.gson.JsonReader;
+import net.fabricmc.loader.metadata.ParseMetadataException;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The rules in a config file, read without touching the policy that's being enforced. Settings that only matter to the
+ * instance enforcing the rules are left to whoever is reading the file.
+ */
+public class PolicyFile {
+    boolean requireModsWithBlocksAndItems = true;
+    final Map<String, ModDependency> required = new LinkedHashMap<>();
+    final Map<String, ModDependency> blacklisted = new LinkedHashMap<>();
+    final Map<String, ModDependency> whitelisted = new LinkedHashMap<>();
+    final Map<String, Set<HashCode>> hashes = new LinkedHashMap<>();
+    @Nullable String blacklistFeed;
+
+    private PolicyFile() {
+    }
+
+    static PolicyFile read(Path path) throws IOException, ParseMetadataException {
+        return read(path, (key, reader) -> false);
+    }
+
+    static PolicyFile read(Path path, SettingReader settings) throws IOException, ParseMetadataException {
+        return read(Files.newBufferedReader(path), settings);
+    }
+
+    static PolicyFile read(Reader json, SettingReader settings) throws IOException, ParseMetadataException {
+        PolicyFile file = new PolicyFile();
+
+        try (JsonReader reader = new JsonReader(json)) {
+            reader.beginObject();
+
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+
+                switch (key) {
+                    case "require_mods_that_add_blocks_and_items":
+                        file.requireModsWithBlocksAndItems = reader.nextBoolean();
+                        break;
+                    case "required":
+                        DependencyUtil.readDependenciesContainer(reader, file.required);
+                        break;
+                    case "blacklisted":
+                        DependencyUtil.readDependenciesContainer(reader, file.blacklisted);
+                        break;
+                    case "whitelisted":
+                        DependencyUtil.readDependenciesContainer(reader, file.whitelisted);
+                        break;
+                    case "integrity":
+                        file.readHashes(reader);
+                        break;
+                    case "blacklist_feed":
+                        file.blacklistFeed = reader.nextString();
+                        break;
+                    default:
+                        if (!settings.read(key, reader)) {
+                            reader.skipValue();
+                        }
+                }
+            }
+        }
+
+        return file;
+    }
+
+    private void readHashes(JsonReader reader) throws IOException {
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            String modId = reader.nextName();
+            Set<HashCode> hashes = new HashSet<>();
+
+            reader.beginArray();
+
+            while (reader.hasNext()) {
+                hashes.add(HashCode.fromString(reader.nextString().toLowerCase(Locale.ROOT)));
+            }
+
+            reader.endArray();
+
+            this.hashes.put(modId, hashes);
+        }
+
+        reader.endObject();
+    }
+
+    CompiledPolicy compile(Map<String, ModDependency> modsWithBlocksAndItems, BlacklistFeed feed) {
+        return new CompiledPolicy(this.requireModsWithBlocksAndItems, this.required, this.blacklisted, this.whitelisted, modsWithBlocksAndItems, this.hashes, feed);
+    }
+
+    /**
+     * @param directory what the feed's path is relative to
+     */
+    BlacklistFeed readBlacklistFeed(Path directory) throws IOException {
+        return this.blacklistFeed == null ? BlacklistFeed.EMPTY : BlacklistFeed.read(directory.resolve(this.blacklistFeed));
+    }
+
+    @FunctionalInterface
+    interface SettingReader {
+        /**
+         * @return whether the setting was read, or false if it should be skipped
+         */
+        boolean read(String key, JsonReader reader) throws IOException;
+    }
+}
@@ -0,0 +1,220 @@
+package dev.hephaestus.garden.impl;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import net.fabricmc.loader.api.metadata.ModDependency;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A report of what online players joined with, whether they comply with the current policy, and how many of them each
+ * rule applies to. The snapshot is taken on the server thread, and is cheap to take because the policy and every
+ * player's mod list are immutable. The report is then written on a background thread, one player or rule at a time.
+ *
+ * <p>Reports ending in {@code .csv} are written as CSV, and anything else as JSON lines. In CSV, each player has a row
+ * for every mod, and then one without a mod id saying whether they're compliant.
+ */
+public class PolicyReport {
+    private static final Gson GSON = new Gson();
+
+    private final CompiledPolicy policy;
+    private final List<PlayerSnapshot> players = new ArrayList<>();
+    private final List<Rule> rules = new ArrayList<>();
+
+    private PolicyReport(CompiledPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Must be called on the server thread.
+     */
+    static PolicyReport snapshot(Map<String, PlayerModVersionsContainerImpl> players) {
+        PolicyReport report = new PolicyReport(Config.compile());
+
+        for (Map.Entry<String, PlayerModVersionsContainerImpl> player : players.entrySet()) {
+            report.players.add(new PlayerSnapshot(player.getKey(), player.getValue().asMap(), player.getValue().isComplete()));
+        }
+
+        for (ModDependency dependency : Config.getRequiredMods()) report.rules.add(new Rule("required", dependency));
+        for (ModDependency dependency : Config.getBlacklistedMods()) report.rules.add(new Rule("blacklisted", dependency));
+        for (ModDependency dependency : Config.getWhitelistedMods()) report.rules.add(new Rule("whitelisted", dependency));
+
+        return report;
+    }
+
+    CompletableFuture<Void> write(Path path) {
+        boolean csv = path.getFileName().toString().endsWith(".csv");
+
+        return CompletableFuture.runAsync(() -> {
+            try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+                if (csv) {
+                    writer.write("record,name,mod_id,version,status\n");
+                }
+
+                for (PlayerSnapshot player : this.players) {
+                    CompiledPolicy.Result result = this.policy.evaluate(player.mods);
+
+                    // We can't tell what a player is missing if they only told us about the mods we asked for
+                    result.missing.keySet().removeIf(modId -> !player.wouldHaveReported(modId));
+
+                    if (csv) {
+                        writePlayerCsv(writer, player, result);
+                    } else {
+                        writePlayerJson(writer, player, result);
+                    }
+
+                    for (Rule rule : this.rules) {
+                        if (rule.appliesTo(player.mods)) ++rule.players;
+                    }
+                }
+
+                for (Rule rule : this.rules) {
+                    if (csv) {
+                        writeCsv(writer, "rule", rule.list, rule.modId, rule.versions, Integer.toString(rule.players));
+                    } else {
+                        JsonObject object = new JsonObject();
+
+                        object.addProperty("type", "rule");
+                        object.addProperty("list", rule.list);
+                        object.addProperty("mod_id", rule.modId);
+                        object.addProperty("versions", rule.versions);
+                        object.addProperty("players", rule.players);
+
+                        writeJson(writer, object);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private static void writePlayerJson(Writer writer, PlayerSnapshot player, CompiledPolicy.Result result) throws IOException {
+        JsonObject object = new JsonObject();
+
+        object.addProperty("type", "player");
+        object.addProperty("name", player.name);
+        object.addProperty("complete", player.complete);
+        object.addProperty("compliant", isCompliant(result));
+        object.add("mods", toJson(player.mods));
+        object.add("not_allowed", toJson(result.notAllowed));
+        object.add("missing", toJson(result.missing));
+        object.add("verified", toJson(result.verified));
+
+        writeJson(writer, object);
+    }
+
+    private static void writePlayerCsv(Writer writer, PlayerSnapshot player, CompiledPolicy.Result result) throws IOException {
+        for (Map.Entry<String, String> mod : player.mods.entrySet()) {
+            String status = result.notAllowed.containsKey(mod.getKey()) ? "not_allowed" : "allowed";
+            writeCsv(writer, "player", player.name, mod.getKey(), mod.getValue(), status);
+        }
+
+        for (Map.Entry<String, String> mod : result.missing.entrySet()) {
+            writeCsv(writer, "player", player.name, mod.getKey(), mod.getValue(), "missing");
+        }
+
+        writeCsv(writer, "player", player.name, "", "", isCompliant(result) ? "compliant" : "not_compliant");
+    }
+
+    private static boolean isCompliant(CompiledPolicy.Result result) {
+        return result.notAllowed.isEmpty() && result.missing.isEmpty();
+    }
+
+    private static JsonObject toJson(Map<String, String> mods) {
+        JsonObject object = new JsonObject();
+
+        for (Map.Entry<String, String> mod : mods.entrySet()) {
+            object.addProperty(mod.getKey(), mod.getValue());
+        }
+
+        return object;
+    }
+
+    private static void writeJson(Writer writer, JsonObject object) throws IOException {
+        GSON.toJson(object, writer);
+        writer.write('\n');
+    }
+
+    /**
+     * Writes one CSV row, quoting the fields that need it. Mod ids and versions come from clients, so they can contain
+     * anything.
+     */
+    static void writeCsv(Writer writer, String... fields) throws IOException {
+        for (int i = 0; i < fields.length; ++i) {
+            if (i > 0) writer.write(',');
+
+            String field = fields[i];
+
+            if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0) {
+                writer.write('"');
+                writer.write(field.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(field);
+            }
+        }
+
+        writer.write('\n');
+    }
+
+    private static class PlayerSnapshot {
+        final String name;
+        final Map<String, String> mods;
+        final boolean complete;
+
+        PlayerSnapshot(String name, Map<String, String> mods, boolean complete) {
+            this.name = name;
+            this.mods = mods;
+            this.complete = complete;
+        }
+
+        /**
+         * @see PlayerModVersionsContainerImpl#wouldHaveReported(String)
+         */
+        boolean wouldHaveReported(String modId) {
+            return this.complete && !WalledGarden.isDefault(modId);
+        }
+    }
+
+    private static class Rule {
+        final String list;
+        final String modId;
+        final String versions;
+        final GlobAutomaton pattern;
+        int players;
+
+        Rule(String list, ModDependency dependency) {
+            this.list = list;
+            this.modId = dependency.getModId();
+            this.versions = getVersions(dependency);
+            this.pattern = GlobAutomaton.isPattern(this.modId)
+                    ? new GlobAutomaton(Collections.singletonList(this.modId))
+                    : GlobAutomaton.EMPTY;
+        }
+
+        private static String getVersions(ModDependency dependency) {
+            List<String> predicates = DependencyUtil.getVersionPredicates(dependency);
+
+            return predicates.isEmpty() ? "*" : String.join(" || ", predicates);
+        }
+
+        boolean appliesTo(Map<String, String> mods) {
+            if (mods.containsKey(this.modId)) return true;
+
+            if (this.pattern != GlobAutomaton.EMPTY) {
+                for (String modId : mods.keySet()) {
+                    if (this.pattern.match(modId) != null) return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
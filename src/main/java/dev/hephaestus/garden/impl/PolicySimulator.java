@@ -0,0 +1,222 @@
+package dev.hephaestus.garden.impl;
+
+import com.google.common.hash.HashCode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.fabricmc.loader.api.metadata.ModDependency;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Replays the mod lists in a {@link HandshakeLog} against a candidate policy to find out who it would turn away. Each
+ * distinct mod list is evaluated once, split across a fork-join pool, and the verdicts are then handed back to every
+ * player who joined with that list.
+ *
+ * <p>Can also be run on its own, with fabric-loader, netty, guava and log4j on the class path:
+ * {@code PolicySimulator <candidate config> <handshake log> [report file]}. Mods that add blocks and items are only
+ * known to a running server, so they're never required there, and a blacklist feed is found relative to the working
+ * directory rather than the game directory.
+ */
+public class PolicySimulator {
+    private static final int THRESHOLD = 64;
+
+    private PolicySimulator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: PolicySimulator <candidate config> <handshake log> [report file]");
+            System.exit(1);
+            return;
+        }
+
+        PolicyFile candidate = PolicyFile.read(Paths.get(args[0]));
+        BlacklistFeed feed = candidate.readBlacklistFeed(Paths.get("").toAbsolutePath());
+        Report report = simulate(candidate, Collections.emptyMap(), feed, HandshakeLog.load(Paths.get(args[1])));
+
+        if (args.length > 2) {
+            report.write(Paths.get(args[2]));
+        } else {
+            Writer writer = new OutputStreamWriter(System.out);
+            report.write(writer);
+            writer.flush();
+        }
+
+        System.err.printf("Evaluated %d mod lists for %d players in %d ms%n", report.lists, report.players, report.millis);
+    }
+
+    static Report simulate(PolicyFile candidate, Map<String, ModDependency> modsWithBlocksAndItems, BlacklistFeed feed, HandshakeLog.Corpus corpus) {
+        long start = System.nanoTime();
+        CompiledPolicy policy = candidate.compile(modsWithBlocksAndItems, feed);
+        Verdict[] verdicts = new Verdict[corpus.lists.size()];
+
+        ForkJoinPool.commonPool().invoke(new Evaluation(policy, corpus, verdicts, 0, verdicts.length));
+
+        Report report = new Report(verdicts.length, corpus.players.size());
+
+        for (Map.Entry<String, Integer> player : corpus.players.entrySet()) {
+            Verdict verdict = verdicts[player.getValue()];
+
+            if (verdict.isRejected()) report.rejected.put(player.getKey(), verdict);
+            if (verdict.incomplete) ++report.incomplete;
+        }
+
+        report.millis = (System.nanoTime() - start) / 1000000;
+
+        return report;
+    }
+
+    /**
+     * @param complete whether the client was asked for every mod. Clients never report mods that are whitelisted by
+     *                 default unless the policy they were sent mentions them, so those are only known to be missing
+     *                 when they're in {@code knownMissing}.
+     */
+    static Verdict evaluate(CompiledPolicy policy, byte[] response, boolean complete, Set<String> knownMissing) {
+        Verdict verdict = new Verdict();
+        ByteBuf buf = Unpooled.wrappedBuffer(response);
+
+        try {
+            CompiledPolicy.Result result = policy.evaluate(buf);
+
+            // What the client says about its list doesn't matter, only what it was asked for
+            if (buf.isReadable()) buf.readBoolean();
+
+            Map<String, HashCode> hashes = new HashMap<>();
+
+            if (buf.isReadable()) {
+                int hashCount = CompiledPolicy.readVarInt(buf);
+
+                for (int i = 0; i < hashCount; ++i) {
+                    String modId = CompiledPolicy.readString(buf);
+                    byte[] hash = new byte[CompiledPolicy.readVarInt(buf)];
+                    buf.readBytes(hash);
+
+                    hashes.put(modId, HashCode.fromBytes(hash));
+                }
+            }
+
+            verdict.notAllowed.putAll(result.notAllowed);
+
+            // A partial list only has the mods the policy at the time asked about, so anything else may be installed
+            for (Map.Entry<String, String> mod : result.missing.entrySet()) {
+                if (knownMissing.contains(mod.getKey()) || complete && !CompiledPolicy.DEFAULT_WHITELIST.contains(mod.getKey())) {
+                    verdict.missing.put(mod.getKey(), mod.getValue());
+                } else {
+                    verdict.incomplete = true;
+                }
+            }
+
+            for (Map.Entry<String, String> mod : result.verified.entrySet()) {
+                HashCode hash = hashes.get(mod.getKey());
+
+                // The client was never asked to prove what this mod contains
+                if (hash == null) {
+                    verdict.incomplete = true;
+                } else if (!policy.isHashAllowed(mod.getKey(), hash)) {
+                    verdict.unverified.put(mod.getKey(), mod.getValue());
+                }
+            }
+        } catch (RuntimeException e) {
+            verdict.incomplete = true;
+        }
+
+        return verdict;
+    }
+
+    private static class Evaluation extends RecursiveAction {
+        private final CompiledPolicy policy;
+        private final HandshakeLog.Corpus corpus;
+        private final Verdict[] verdicts;
+        private final int start;
+        private final int end;
+
+        Evaluation(CompiledPolicy policy, HandshakeLog.Corpus corpus, Verdict[] verdicts, int start, int end) {
+            this.policy = policy;
+            this.corpus = corpus;
+            this.verdicts = verdicts;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.end - this.start <= THRESHOLD) {
+                for (int i = this.start; i < this.end; ++i) {
+                    this.verdicts[i] = evaluate(this.policy, this.corpus.lists.get(i), this.corpus.complete.get(i), Collections.emptySet());
+                }
+            } else {
+                int middle = (this.start + this.end) >>> 1;
+
+                invokeAll(new Evaluation(this.policy, this.corpus, this.verdicts, this.start, middle),
+                        new Evaluation(this.policy, this.corpus, this.verdicts, middle, this.end));
+            }
+        }
+    }
+
+    static class Verdict {
+        final Map<String, String> notAllowed = new LinkedHashMap<>();
+        final Map<String, String> unverified = new LinkedHashMap<>();
+        final Map<String, String> missing = new LinkedHashMap<>();
+        boolean incomplete;
+
+        boolean isRejected() {
+            return !this.notAllowed.isEmpty() || !this.unverified.isEmpty() || !this.missing.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            StringJoiner joiner = new StringJoiner("; ");
+
+            append(joiner, "not allowed", this.notAllowed);
+            append(joiner, "modified", this.unverified);
+            append(joiner, "missing", this.missing);
+
+            return joiner.toString();
+        }
+
+        private static void append(StringJoiner joiner, String reason, Map<String, String> mods) {
+            if (mods.isEmpty()) return;
+
+            StringJoiner entries = new StringJoiner(", ", reason + ": ", "");
+
+            for (Map.Entry<String, String> entry : mods.entrySet()) {
+                entries.add(entry.getKey() + " " + entry.getValue());
+            }
+
+            joiner.add(entries.toString());
+        }
+    }
+
+    static class Report {
+        final int lists;
+        final int players;
+        final Map<String, Verdict> rejected = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        int incomplete;
+        long millis;
+
+        Report(int lists, int players) {
+            this.lists = lists;
+            this.players = players;
+        }
+
+        void write(Path path) throws IOException {
+            try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+                this.write(writer);
+            }
+        }
+
+        void write(Writer writer) throws IOException {
+            writer.write(String.format("%d of %d players would be disconnected, %d had incomplete mod lists%n", this.rejected.size(), this.players, this.incomplete));
+
+            for (Map.Entry<String, Verdict> entry : this.rejected.entrySet()) {
+                writer.write(entry.getKey() + ": " + entry.getValue() + System.lineSeparator());
+            }
+        }
+    }
+}
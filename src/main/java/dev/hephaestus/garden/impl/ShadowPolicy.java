@@ -0,0 +1,158 @@
+package dev.hephaestus.garden.impl;
+
+import net.fabricmc.loader.api.FabricLoader;
+import net.fabricmc.loader.api.metadata.ModDependency;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A candidate policy that every real login is also evaluated against, without it ever disconnecting anyone. The shadow
+ * verdict is reached on a background thread once the real one has been, and only the logins where the two disagree
+ * are kept, along with a random sample of who they were and why.
+ */
+public class ShadowPolicy {
+    private static final int SAMPLES = 16;
+    private static final int QUEUE = 1024;
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE), runnable -> {
+                Thread thread = new Thread(runnable, "Walled Garden Shadow Policy");
+                thread.setDaemon(true);
+                return thread;
+            }, (runnable, executor) -> {
+                Shadow shadow = CURRENT;
+                if (shadow != null) shadow.skipped.incrementAndGet();
+            });
+
+    private static volatile @Nullable Shadow CURRENT;
+
+    private ShadowPolicy() {
+    }
+
+    /**
+     * Replaces the shadow policy with the one in the given config, or removes it if the path is null.
+     */
+    static void load(@Nullable Path path) throws Exception {
+        if (path == null) {
+            CURRENT = null;
+        } else {
+            PolicyFile candidate = PolicyFile.read(path);
+            CURRENT = new Shadow(path, candidate, candidate.readBlacklistFeed(FabricLoader.getInstance().getGameDir()));
+        }
+    }
+
+    static @Nullable Shadow get() {
+        return CURRENT;
+    }
+
+    static boolean isActive() {
+        return CURRENT != null;
+    }
+
+    /**
+     * Queues a login to be evaluated against the shadow policy. Logins are skipped rather than queued without bound.
+     *
+     * @param response the response, or null if it wasn't kept because no shadow policy was staged at the time
+     * @param complete whether the client was asked for every mod
+     * @param missing the mods the enforced policy found missing, which the client was asked about
+     * @param rejected whether the enforced policy disconnected the player
+     * @param policy the enforced policy the login was evaluated against
+     */
+    static void evaluate(String playerName, @Nullable byte[] response, boolean complete, Set<String> missing, boolean rejected, CompiledPolicy policy) {
+        Shadow shadow = CURRENT;
+
+        if (shadow != null && response != null) {
+            EXECUTOR.execute(() -> shadow.evaluate(playerName, response, complete, missing, rejected, policy));
+        }
+    }
+
+    static class Shadow {
+        final Path path;
+        final AtomicLong evaluated = new AtomicLong();
+        final AtomicLong wouldReject = new AtomicLong();
+        final AtomicLong wouldAccept = new AtomicLong();
+        final AtomicLong incomplete = new AtomicLong();
+        final AtomicLong skipped = new AtomicLong();
+
+        private final PolicyFile candidate;
+        private final BlacklistFeed feed;
+        private final List<Divergence> samples = new ArrayList<>(SAMPLES);
+        private final Random random = new Random();
+        private @Nullable CompiledPolicy enforced;
+        private @Nullable Map<String, ModDependency> modsWithBlocksAndItems;
+        private CompiledPolicy compiled;
+
+        private Shadow(Path path, PolicyFile candidate, BlacklistFeed feed) {
+            this.path = path;
+            this.candidate = candidate;
+            this.feed = feed;
+        }
+
+        /**
+         * Only ever called from the shadow policy thread.
+         */
+        private void evaluate(String playerName, byte[] response, boolean complete, Set<String> missing, boolean rejected, CompiledPolicy policy) {
+            // The mods that add blocks and items come from the enforced policy, so follow along when they change
+            if (this.enforced != policy) {
+                this.enforced = policy;
+
+                if (!policy.getModsWithBlocksAndItems().equals(this.modsWithBlocksAndItems)) {
+                    this.modsWithBlocksAndItems = policy.getModsWithBlocksAndItems();
+                    this.compiled = this.candidate.compile(this.modsWithBlocksAndItems, this.feed);
+                }
+            }
+
+            PolicySimulator.Verdict verdict = PolicySimulator.evaluate(this.compiled, response, complete, missing);
+
+            this.evaluated.incrementAndGet();
+
+            if (verdict.incomplete) {
+                this.incomplete.incrementAndGet();
+            }
+
+            if (verdict.isRejected() == rejected) return;
+
+            long divergences = (rejected ? this.wouldAccept : this.wouldReject).incrementAndGet() + (rejected ? this.wouldReject : this.wouldAccept).get();
+            Divergence divergence = new Divergence(playerName, !rejected, verdict.toString());
+
+            // Reservoir sampling, so that the samples are spread over everything we've seen
+            synchronized (this.samples) {
+                if (this.samples.size() < SAMPLES) {
+                    this.samples.add(divergence);
+                } else {
+                    long index = (long) (this.random.nextDouble() * divergences);
+
+                    if (index < SAMPLES) {
+                        this.samples.set((int) index, divergence);
+                    }
+                }
+            }
+        }
+
+        List<Divergence> getSamples() {
+            synchronized (this.samples) {
+                return new ArrayList<>(this.samples);
+            }
+        }
+    }
+
+    static class Divergence {
+        final String playerName;
+        final boolean wouldReject;
+        final String reason;
+
+        Divergence(String playerName, boolean wouldReject, String reason) {
+            this.playerName = playerName;
+            this.wouldReject = wouldReject;
+            this.reason = reason;
+        }
+    }
+}
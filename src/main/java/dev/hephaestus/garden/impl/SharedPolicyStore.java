@@ -0,0 +1,159 @@
+package dev.hephaestus.garden.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A memory-mapped file that lets several server instances on the same machine enforce the same policy and share their
+ * verdict cache. The file starts with a generation counter that is bumped under an exclusive lock whenever an instance
+ * publishes a policy change; other instances notice the new generation and load the encoded policy, without touching
+ * their JSON config until it needs to be rewritten.
+ */
+public class SharedPolicyStore {
+    private static final int MAGIC = 0x57474152;
+    private static final int FORMAT = 1;
+
+    private static final int GENERATION_OFFSET = 8;
+    private static final int POLICY_LENGTH_OFFSET = 16;
+    private static final int POLICY_OFFSET = 20;
+    private static final int POLICY_CAPACITY = 1024 * 1024;
+    private static final int VERDICTS_OFFSET = POLICY_OFFSET + POLICY_CAPACITY;
+    private static final int SIZE = VERDICTS_OFFSET + VerdictCache.BYTES;
+
+    private static FileChannel CHANNEL;
+    private static MappedByteBuffer BUFFER;
+    private static long GENERATION;
+
+    private SharedPolicyStore() {
+    }
+
+    /**
+     * Opens the shared store configured in walled-garden.json, if any. If another instance already published a policy
+     * we adopt it, otherwise ours is published.
+     */
+    static void open() {
+        Path path = Config.getSharedStore();
+
+        if (path == null) return;
+
+        try {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+
+            CHANNEL = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            try (FileLock ignored = CHANNEL.lock()) {
+                BUFFER = CHANNEL.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+
+                if (BUFFER.getInt(0) != MAGIC || BUFFER.getInt(4) != FORMAT) {
+                    BUFFER.putInt(0, MAGIC);
+                    BUFFER.putInt(4, FORMAT);
+                    BUFFER.putLong(GENERATION_OFFSET, 0);
+                    BUFFER.putInt(POLICY_LENGTH_OFFSET, 0);
+
+                    for (int i = VERDICTS_OFFSET; i < SIZE; i += 8) {
+                        BUFFER.putLong(i, 0);
+                    }
+                }
+            }
+
+            VerdictCache.share(slice(VERDICTS_OFFSET, VerdictCache.BYTES));
+
+            if (BUFFER.getLong(GENERATION_OFFSET) == 0) {
+                publish();
+            } else {
+                poll();
+            }
+
+            WalledGarden.LOG.info("Sharing policy through {}", path);
+        } catch (IOException e) {
+            WalledGarden.LOG.error("Failed to open shared policy store {}", path, e);
+            close();
+        }
+    }
+
+    static void close() {
+        if (CHANNEL != null) {
+            try {
+                CHANNEL.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        CHANNEL = null;
+        BUFFER = null;
+    }
+
+    /**
+     * Makes the current policy visible to every other instance using the same store.
+     */
+    static synchronized void publish() {
+        if (BUFFER == null) return;
+
+        byte[] policy = Config.encode();
+
+        if (policy.length > POLICY_CAPACITY) {
+            WalledGarden.LOG.error("Policy is too large to share ({} bytes)", policy.length);
+            return;
+        }
+
+        try (FileLock ignored = CHANNEL.lock(0, POLICY_OFFSET + POLICY_CAPACITY, false)) {
+            ByteBuffer region = slice(POLICY_OFFSET, POLICY_CAPACITY);
+            region.put(policy);
+
+            BUFFER.putInt(POLICY_LENGTH_OFFSET, policy.length);
+
+            GENERATION = BUFFER.getLong(GENERATION_OFFSET) + 1;
+            BUFFER.putLong(GENERATION_OFFSET, GENERATION);
+        } catch (IOException e) {
+            WalledGarden.LOG.error("Failed to publish policy", e);
+        }
+    }
+
+    /**
+     * Loads the shared policy if another instance changed it since we last looked. Checking is a single read from
+     * the mapped file, so this is cheap enough to call every few ticks.
+     *
+     * @return whether a new policy was loaded
+     */
+    static synchronized boolean poll() {
+        if (BUFFER == null || BUFFER.getLong(GENERATION_OFFSET) == GENERATION) return false;
+
+        byte[] policy;
+
+        try (FileLock ignored = CHANNEL.lock(0, POLICY_OFFSET + POLICY_CAPACITY, true)) {
+            GENERATION = BUFFER.getLong(GENERATION_OFFSET);
+            int length = BUFFER.getInt(POLICY_LENGTH_OFFSET);
+
+            // Skipped until the next generation, so a corrupt store is only reported once
+            if (length < 0 || length > POLICY_CAPACITY) {
+                WalledGarden.LOG.error("Shared policy generation {} has an invalid length ({} bytes)", GENERATION, length);
+                return false;
+            }
+
+            policy = new byte[length];
+            slice(POLICY_OFFSET, length).get(policy);
+        } catch (IOException e) {
+            WalledGarden.LOG.error("Failed to read shared policy", e);
+            return false;
+        }
+
+        Config.decode(policy);
+        WalledGarden.LOG.info("Loaded shared policy generation {}", GENERATION);
+
+        return true;
+    }
+
+    private static ByteBuffer slice(int offset, int length) {
+        ByteBuffer duplicate = BUFFER.duplicate();
+        duplicate.position(offset);
+        duplicate.limit(offset + length);
+
+        return duplicate.slice();
+    }
+}
@@ -0,0 +1,30 @@
+package dev.hephaestus.garden.impl;
+
+import java.util.StringJoiner;
+
+/**
+ * Times each phase of starting up, so that a slow config or store shows up in the log rather than as a slow boot.
+ */
+class StartupTimer {
+    private final long start = System.nanoTime();
+    private final StringJoiner phases = new StringJoiner(", ");
+    private long last = this.start;
+
+    /**
+     * Ends the current phase, which started when the previous one ended.
+     */
+    void lap(String phase) {
+        long now = System.nanoTime();
+
+        this.phases.add(phase + " " + millis(now - this.last) + " ms");
+        this.last = now;
+    }
+
+    void log() {
+        WalledGarden.LOG.info("Started in {} ms ({})", millis(System.nanoTime() - this.start), this.phases);
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1f", nanos / 1000000D);
+    }
+}
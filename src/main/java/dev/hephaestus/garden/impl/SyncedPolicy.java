@@ -0,0 +1,288 @@
+package dev.hephaestus.garden.impl;
+
+import com.google.common.hash.Hashing;
+import com.google.gson.JsonObject;
+import io.netty.buffer.Unpooled;
+import net.fabricmc.loader.api.VersionPredicate;
+import net.fabricmc.loader.api.metadata.ModDependency;
+import net.minecraft.network.PacketByteBuf;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compact description of the server's policy, sent along with the login query so that clients only need to report
+ * the mods the server actually cares about.
+ */
+public class SyncedPolicy {
+    private static final int FORMAT = 1;
+    private static final int MAX_STATUS_BYTES = 2048;
+
+    public static final String STATUS_KEY = "walled-garden";
+
+    private static int cachedVersion = -1;
+    private static byte[] cachedBytes;
+    private static volatile @Nullable JsonObject status;
+    private static int statusVersion = -1;
+
+    private static final Map<String, SyncedPolicy> KNOWN_POLICIES = new ConcurrentHashMap<>();
+
+    private final boolean reportAll;
+    private final Map<String, List<String>> required;
+    private final Set<String> blacklisted;
+    private final GlobAutomaton blacklistPatterns;
+    private final Set<String> verified;
+
+    private SyncedPolicy(boolean reportAll, Map<String, List<String>> required, Set<String> blacklisted, Set<String> verified) {
+        this.reportAll = reportAll;
+        this.required = required;
+        this.blacklisted = blacklisted;
+        this.blacklistPatterns = new GlobAutomaton(GlobAutomaton.getPatterns(blacklisted));
+        this.verified = verified;
+    }
+
+    /**
+     * @return whether the policy encoded by {@link SyncedPolicy#encode()} asks clients to report every mod that isn't
+     * always allowed
+     */
+    static boolean isReportAll(byte[] encoded) {
+        return encoded[1] != 0;
+    }
+
+    /**
+     * Encodes the current server policy, re-encoding it only when the policy has changed.
+     */
+    static synchronized byte[] encode() {
+        if (cachedVersion != Config.getVersion()) {
+            int version = Config.getVersion();
+            PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
+
+            buf.writeByte(FORMAT);
+            // The catalog, handshake log, shadow policy and other mods' capabilities want to know about every mod players use,
+            // not just the ones our rules mention. A blacklist feed is far larger than any client's mod list.
+            buf.writeBoolean(Config.isWhitelistEnabled() || Config.isCatalogEnabled() || Config.isRecordingHandshakes()
+                    || ShadowPolicy.isActive() || ModCapabilityImpl.isAnyRegistered() || BlacklistFeed.get().size() > 0);
+
+            Collection<ModDependency> required = Config.getRequiredMods();
+            buf.writeVarInt(required.size());
+
+            for (ModDependency dependency : required) {
+                Set<VersionPredicate> predicates = dependency.getVersionRequirements();
+
+                buf.writeString(dependency.getModId());
+                buf.writeVarInt(predicates.size());
+
+                for (VersionPredicate predicate : predicates) {
+                    buf.writeString(predicate.toString());
+                }
+            }
+
+            Collection<ModDependency> blacklisted = Config.getBlacklistedMods();
+            buf.writeVarInt(blacklisted.size());
+
+            for (ModDependency dependency : blacklisted) {
+                buf.writeString(dependency.getModId());
+            }
+
+            Set<String> verified = Config.getVerifiedMods();
+            buf.writeVarInt(verified.size());
+
+            for (String modId : verified) {
+                buf.writeString(modId);
+            }
+
+            cachedBytes = new byte[buf.readableBytes()];
+            buf.readBytes(cachedBytes);
+            cachedVersion = version;
+        }
+
+        return cachedBytes;
+    }
+
+    /**
+     * Rebuilds what's included in status responses if the policy has changed. Must be called on the server thread, since
+     * the config is only safe to read there.
+     *
+     * <p>Small policies are included in the status response directly, larger ones are only identified by fingerprint and
+     * can be checked by clients that have joined a server with the same policy before.
+     */
+    static void publishStatus() {
+        if (statusVersion == Config.getVersion()) return;
+
+        int version = Config.getVersion();
+        byte[] bytes = encode();
+        JsonObject object = new JsonObject();
+
+        object.addProperty("fingerprint", fingerprint(bytes));
+
+        if (bytes.length <= MAX_STATUS_BYTES) {
+            object.addProperty("policy", Base64.getEncoder().encodeToString(bytes));
+        }
+
+        status = object;
+        statusVersion = version;
+    }
+
+    /**
+     * Safe to call from the threads that answer server list pings.
+     *
+     * @return what to include in status responses, or null if the server hasn't published it yet
+     */
+    public static @Nullable JsonObject toStatus() {
+        return status;
+    }
+
+    /**
+     * @return the policy described by a status response, or null if we don't know enough about it
+     */
+    public static @Nullable SyncedPolicy fromStatus(JsonObject object) {
+        if (!object.has("fingerprint")) return null;
+
+        return fromStatus(object.get("fingerprint").getAsString(),
+                object.has("policy") ? object.get("policy").getAsString() : null);
+    }
+
+    static String fingerprint(byte[] bytes) {
+        return Hashing.murmur3_128().hashBytes(bytes).toString();
+    }
+
+    /**
+     * @return the policy contained in the given buffer, or null if the server didn't send one we understand
+     */
+    static @Nullable SyncedPolicy read(PacketByteBuf buf) {
+        if (!buf.isReadable() || buf.getByte(buf.readerIndex()) != FORMAT) return null;
+
+        byte[] bytes = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), bytes);
+
+        SyncedPolicy policy = decode(buf);
+        KNOWN_POLICIES.put(fingerprint(bytes), policy);
+
+        return policy;
+    }
+
+    /**
+     * Finds the policy a server advertised in its status response, either from the response itself or from an earlier
+     * login to a server with the same policy.
+     */
+    private static @Nullable SyncedPolicy fromStatus(String fingerprint, @Nullable String encoded) {
+        SyncedPolicy policy = KNOWN_POLICIES.get(fingerprint);
+
+        if (policy == null && encoded != null) {
+            byte[] bytes = Base64.getDecoder().decode(encoded);
+
+            if (bytes.length > 0 && bytes[0] == FORMAT && fingerprint(bytes).equals(fingerprint)) {
+                policy = decode(new PacketByteBuf(Unpooled.wrappedBuffer(bytes)));
+                KNOWN_POLICIES.put(fingerprint, policy);
+            }
+        }
+
+        return policy;
+    }
+
+    private static SyncedPolicy decode(PacketByteBuf buf) {
+        buf.readByte();
+
+        boolean reportAll = buf.readBoolean();
+
+        int requiredCount = buf.readVarInt();
+        Map<String, List<String>> required = new HashMap<>();
+
+        for (int i = 0; i < requiredCount; ++i) {
+            String modId = buf.readString(32767);
+            int predicateCount = buf.readVarInt();
+            List<String> predicates = new ArrayList<>(predicateCount);
+
+            for (int j = 0; j < predicateCount; ++j) {
+                predicates.add(buf.readString(32767));
+            }
+
+            required.put(modId, predicates);
+        }
+
+        int blacklistedCount = buf.readVarInt();
+        Set<String> blacklisted = new HashSet<>();
+
+        for (int i = 0; i < blacklistedCount; ++i) {
+            blacklisted.add(buf.readString(32767));
+        }
+
+        int verifiedCount = buf.readVarInt();
+        Set<String> verified = new HashSet<>();
+
+        for (int i = 0; i < verifiedCount; ++i) {
+            verified.add(buf.readString(32767));
+        }
+
+        return new SyncedPolicy(reportAll, required, blacklisted, verified);
+    }
+
+    /**
+     * @return whether the server needs to know about the given mod to evaluate this policy
+     */
+    boolean isRelevant(String modId) {
+        return this.required.containsKey(modId)
+                || this.isBlacklisted(modId)
+                || this.verified.contains(modId)
+                || (this.reportAll && !WalledGarden.isDefault(modId));
+    }
+
+    /**
+     * Evaluates the given mods against this policy as far as the client is able to. Whitelists aren't synced, so mods
+     * that aren't whitelisted won't be reported.
+     *
+     * @return a description of each problem the server would kick us for
+     */
+    public List<String> getProblems(ClientModList mods) {
+        List<String> problems = new ArrayList<>();
+        Map<String, String> installed = new HashMap<>();
+
+        for (int i = 0; i < mods.size(); ++i) {
+            String modId = mods.getId(i);
+
+            installed.put(modId, mods.getVersion(i));
+
+            if (this.isBlacklisted(modId)) {
+                problems.add(modId);
+            }
+        }
+
+        for (Map.Entry<String, List<String>> entry : this.required.entrySet()) {
+            String version = installed.get(entry.getKey());
+            ModDependency dependency = DependencyUtil.dependency(entry.getKey(), entry.getValue());
+
+            if (version == null || (dependency != null && !DependencyUtil.matches(dependency, version))) {
+                problems.add(entry.getKey() + " " + String.join(" || ", entry.getValue()));
+            }
+        }
+
+        return problems;
+    }
+
+    private boolean isBlacklisted(String modId) {
+        return this.blacklisted.contains(modId) || this.blacklistPatterns.match(modId) != null;
+    }
+
+    Map<String, List<String>> getRequired() {
+        return this.required;
+    }
+
+    Set<String> getBlacklisted() {
+        return this.blacklisted;
+    }
+
+    /**
+     * @return the mods whose jars the server wants content hashes of
+     */
+    Set<String> getVerified() {
+        return this.verified;
+    }
+
+    /**
+     * @return whether the server wants to know about every mod that isn't always allowed
+     */
+    boolean isReportAll() {
+        return this.reportAll;
+    }
+}
@@ -0,0 +1,81 @@
+package dev.hephaestus.garden.impl;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Remembers which mod lists were accepted under which policy, so that players joining with a list we've already seen
+ * don't need to be evaluated again. The table lives in a plain buffer so that it can be placed in a
+ * {@link SharedPolicyStore} and used by every instance on the machine.
+ *
+ * <p>Each slot holds two independent halves of a 128-bit hash of the policy and the mod list. A slot only counts as a
+ * hit if both halves match, so a slot that was torn by a concurrent write from another instance is simply a miss.</p>
+ */
+public class VerdictCache {
+    private static final int SLOTS = 1 << 16;
+    private static final int SLOT_BYTES = 16;
+
+    static final int BYTES = SLOTS * SLOT_BYTES;
+
+    private static ByteBuffer TABLE = ByteBuffer.allocate(BYTES);
+    private static final ThreadLocal<byte[]> CHUNK = ThreadLocal.withInitial(() -> new byte[1024]);
+
+    private VerdictCache() {
+    }
+
+    static void share(ByteBuffer table) {
+        TABLE = table;
+    }
+
+    /**
+     * Hashes the mod list where it is, in chunks, rather than copying it out of the buffer first.
+     */
+    static HashCode key(HashCode policyHash, ByteBuf buf, int offset, int length) {
+        Hasher hasher = Hashing.murmur3_128().newHasher().putBytes(policyHash.asBytes());
+
+        if (buf.hasArray()) {
+            hasher.putBytes(buf.array(), buf.arrayOffset() + offset, length);
+        } else {
+            byte[] chunk = CHUNK.get();
+
+            for (int i = 0; i < length; i += chunk.length) {
+                int chunkLength = Math.min(chunk.length, length - i);
+
+                buf.getBytes(offset + i, chunk, 0, chunkLength);
+                hasher.putBytes(chunk, 0, chunkLength);
+            }
+        }
+
+        return hasher.hash();
+    }
+
+    static boolean isAccepted(HashCode key) {
+        ByteBuffer table = TABLE;
+        long low = key.asLong();
+        long high = getHigh(key);
+        int slot = slot(low);
+
+        return table.getLong(slot) == low && table.getLong(slot + 8) == high;
+    }
+
+    static void accept(HashCode key) {
+        ByteBuffer table = TABLE;
+        long low = key.asLong();
+        int slot = slot(low);
+
+        table.putLong(slot, low);
+        table.putLong(slot + 8, getHigh(key));
+    }
+
+    private static int slot(long low) {
+        return (int) (low >>> 32 & (SLOTS - 1)) * SLOT_BYTES;
+    }
+
+    private static long getHigh(HashCode key) {
+        return ByteBuffer.wrap(key.asBytes()).getLong(8);
+    }
+}
@@ -1,7 +1,7 @@
 package dev.hephaestus.garden.impl;
 
-import com.google.common.collect.ImmutableSet;
 import com.mojang.brigadier.arguments.BoolArgumentType;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.builder.RequiredArgumentBuilder;
@@ -10,6 +10,8 @@ import com.mojang.brigadier.suggestion.SuggestionProvider;
 import dev.hephaestus.garden.api.PlayerModVersionsContainer;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.command.v1.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.fabricmc.fabric.api.event.registry.RegistryEntryAddedCallback;
 import net.fabricmc.loader.api.*;
 import net.fabricmc.loader.api.metadata.ModDependency;
@@ -27,16 +29,22 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.Nullable;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 
 public class WalledGarden implements ModInitializer {
-    private static final ImmutableSet<String> DEFAULT_WHITELIST = ImmutableSet.of("walled-garden", "minecraft", "java", "fabricloader", "fabric-api-base", "fabric", "fabric-biome-api-v1", "fabric-blockrenderlayer-v1", "fabric-commands-v0", "fabric-command-api-v1", "fabric-config-api-v1", "fabric-containers-v0", "fabric-content-registries-v0", "fabric-crash-report-info-v1", "fabric-dimensions-v1", "fabric-entity-events-v1", "fabric-events-interaction-v0", "fabric-events-lifecycle-v0", "fabric-game-rule-api-v1", "fabric-item-api-v1", "fabric-item-groups-v0", "fabric-keybindings-v0", "fabric-key-binding-api-v1", "fabric-lifecycle-events-v1", "fabric-loot-tables-v1", "fabric-mining-levels-v0", "fabric-models-v0", "fabric-networking-v0", "fabric-networking-api-v1", "fabric-networking-blockentity-v0", "fabric-object-builder-api-v1", "fabric-object-builders-v0", "fabric-particles-v1", "fabric-registry-sync-v0", "fabric-renderer-api-v1", "fabric-renderer-indigo", "fabric-renderer-registries-v1", "fabric-rendering-v0", "fabric-rendering-v1", "fabric-rendering-data-attachment-v1", "fabric-rendering-fluids-v1", "fabric-resource-loader-v0", "fabric-screen-api-v1", "fabric-screen-handler-api-v1", "fabric-structure-api-v1", "fabric-tag-extensions-v0", "fabric-textures-v0", "fabric-tool-attribute-api-v1");
     private static final String MOD_ID = "walled-garden";
 
     public static final Logger LOG = LogManager.getLogger("WalledGarden");
@@ -47,8 +55,64 @@ public class WalledGarden implements ModInitializer {
 
     @Override
     public void onInitialize() {
-        Config.read();
+        StartupTimer timer = new StartupTimer();
+
+        ModIdIndex.init();
+        timer.lap("mod index");
+        Config.read(timer);
+        SharedPolicyStore.open();
+        timer.lap("shared store");
+        BlacklistFeed.open(Config.getBlacklistFeed());
+        timer.lap("blacklist feed");
         check(Registry.BLOCK, Registry.ITEM);
+        timer.lap("blocks and items");
+        Config.compile();
+        timer.lap("policy");
+
+        if (Config.isCatalogEnabled()) {
+            ModCatalog.read();
+            timer.lap("catalog");
+        }
+
+        try {
+            ShadowPolicy.load(Config.getShadowPolicy());
+        } catch (Exception e) {
+            LOG.error("Failed to read shadow policy {}", Config.getShadowPolicy(), e);
+        }
+
+        timer.lap("shadow policy");
+        timer.log();
+
+        ServerTickEvents.END_SERVER_TICK.register(server -> {
+            Config.compile();
+            SyncedPolicy.publishStatus();
+
+            if (server.getTicks() % 20 == 0 && SharedPolicyStore.poll()) {
+                recheckPlayers(server);
+            }
+
+            if (server.getTicks() % 100 == 0) {
+                BlacklistFeed.poll(server, () -> recheckPlayers(server));
+            }
+
+            if (server.getTicks() % 6000 == 0 && Config.isCatalogEnabled()) {
+                ModCatalog.save();
+            }
+        });
+
+        ServerLifecycleEvents.SERVER_STARTING.register(server -> {
+            if (Config.isRecordingHandshakes()) {
+                HandshakeLog.open();
+            }
+        });
+
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+            if (Config.isCatalogEnabled()) {
+                ModCatalog.save().join();
+            }
+
+            HandshakeLog.close();
+        });
 
         SuggestionProvider<ServerCommandSource> conditionType = (context, builder) -> {
             for (Condition action : Condition.values()) builder.suggest(action.condition);
@@ -69,17 +133,17 @@ public class WalledGarden implements ModInitializer {
             String action = context.getArgument("action", String.class);
             Condition condition = Condition.of(context.getArgument("condition", String.class));
 
+            if (condition == null) return builder.buildFuture();
+
             if (action.equalsIgnoreCase("get") || action.equalsIgnoreCase("remove")) {
-                for (ModDependency dependency : condition.list()) {
-                    builder.suggest(dependency.getModId());
-                }
-            } else if (action.equalsIgnoreCase("add") && condition != Condition.BLACKLISTED) {
-                for (ModContainer mod : FabricLoader.getInstance().getAllMods()) {
-                    builder.suggest(mod.getMetadata().getId());
-                }
+                // Only rules for the exact mod id can be removed, so ids that only match a pattern aren't suggested
+                ModIdIndex.suggest(builder, condition::hasRule);
+            } else if (action.equalsIgnoreCase("add")) {
+                // There's little point in blacklisting mods the server has installed itself
+                ModIdIndex.suggest(builder, modId -> condition != Condition.BLACKLISTED || DependencyUtil.getName(modId) == null);
             }
 
-            return CompletableFuture.completedFuture(builder.build());
+            return builder.buildFuture();
         };
 
         CommandRegistrationCallback.EVENT.register(((dispatcher, dedicated) ->
@@ -98,6 +162,42 @@ public class WalledGarden implements ModInitializer {
                                                 .executes(WalledGarden::get)
                                         )
                                 )
+                        .then(LiteralArgumentBuilder.<ServerCommandSource>literal("catalog")
+                                .then(LiteralArgumentBuilder.<ServerCommandSource>literal("top")
+                                        .executes(context -> catalogTop(context, 10))
+                                        .then(RequiredArgumentBuilder.<ServerCommandSource, Integer>argument("count", IntegerArgumentType.integer(1))
+                                                .executes(context -> catalogTop(context, context.getArgument("count", Integer.class)))
+                                        )
+                                )
+                                .then(LiteralArgumentBuilder.<ServerCommandSource>literal("export")
+                                        .then(RequiredArgumentBuilder.<ServerCommandSource, String>argument("file", StringArgumentType.string())
+                                                .executes(WalledGarden::catalogExport)
+                                        )
+                                )
+                        )
+                        .then(LiteralArgumentBuilder.<ServerCommandSource>literal("simulate")
+                                .then(RequiredArgumentBuilder.<ServerCommandSource, String>argument("file", StringArgumentType.string())
+                                        .executes(WalledGarden::simulate)
+                                )
+                        )
+                        .then(LiteralArgumentBuilder.<ServerCommandSource>literal("shadow")
+                                .then(LiteralArgumentBuilder.<ServerCommandSource>literal("stage")
+                                        .then(RequiredArgumentBuilder.<ServerCommandSource, String>argument("file", StringArgumentType.string())
+                                                .executes(WalledGarden::shadowStage)
+                                        )
+                                )
+                                .then(LiteralArgumentBuilder.<ServerCommandSource>literal("clear")
+                                        .executes(WalledGarden::shadowClear)
+                                )
+                                .then(LiteralArgumentBuilder.<ServerCommandSource>literal("status")
+                                        .executes(WalledGarden::shadowStatus)
+                                )
+                        )
+                        .then(LiteralArgumentBuilder.<ServerCommandSource>literal("report")
+                                .then(RequiredArgumentBuilder.<ServerCommandSource, String>argument("file", StringArgumentType.string())
+                                        .executes(WalledGarden::report)
+                                )
+                        )
                         .then(LiteralArgumentBuilder.<ServerCommandSource>literal("require_mods_that_add_blocks_and_items")
                                 .then(RequiredArgumentBuilder.<ServerCommandSource, Boolean>argument("required", BoolArgumentType.bool())
                                         .executes(WalledGarden::requireModsThatAddBlocksAndItems)
@@ -121,6 +221,9 @@ public class WalledGarden implements ModInitializer {
 
             Map<String, String> missing = Config.getMissing(playerVersions.asMap());
 
+            // We can't tell what a player is missing if they only told us about the mods we asked for
+            missing.keySet().removeIf(modId -> !((PlayerModVersionsContainerImpl) playerVersions).wouldHaveReported(modId));
+
             Optional<MutableText> text = checkRequiredMods(player.getGameProfile().getName(), missing);
 
             text.ifPresent(message -> player.networkHandler.disconnect(message));
@@ -129,6 +232,174 @@ public class WalledGarden implements ModInitializer {
         return 0;
     }
 
+    private static int catalogTop(CommandContext<ServerCommandSource> context, int count) {
+        List<ModCatalog.Row> rows = ModCatalog.top(count);
+
+        context.getSource().sendFeedback(new TranslatableText("command.walled-garden.catalog.top",
+                rows.size(), ModCatalog.getPlayerCount()), false);
+
+        for (ModCatalog.Row row : rows) {
+            context.getSource().sendFeedback(new TranslatableText("command.walled-garden.catalog.entry",
+                    row.modId, row.count, row.players), false);
+        }
+
+        return rows.size();
+    }
+
+    private static int catalogExport(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        MinecraftServer server = source.getMinecraftServer();
+        Path path = FabricLoader.getInstance().getGameDir().resolve(context.getArgument("file", String.class));
+
+        ModCatalog.export(path).whenComplete((result, throwable) -> server.execute(() -> {
+            if (throwable != null) {
+                LOG.error("Failed to export mod catalog", throwable);
+                source.sendError(new TranslatableText("command.walled-garden.export.failed", path.toString()));
+            } else {
+                source.sendFeedback(new TranslatableText("command.walled-garden.export", path.toString()), true);
+            }
+        }));
+
+        return 1;
+    }
+
+    /**
+     * Tries a candidate config against every recorded handshake in the background, then reports who it would
+     * disconnect. The full report is written next to the candidate.
+     */
+    private static int simulate(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        MinecraftServer server = source.getMinecraftServer();
+        Path path = FabricLoader.getInstance().getGameDir().resolve(context.getArgument("file", String.class));
+        Path reportPath = path.resolveSibling(path.getFileName() + ".simulation.txt");
+        Path log = HandshakeLog.getFile();
+
+        if (!Files.exists(log)) {
+            source.sendError(new TranslatableText("command.walled-garden.simulate.no-handshakes"));
+            return 0;
+        }
+
+        Map<String, ModDependency> modsWithBlocksAndItems = Config.getModsThatAddBlocksAndItems();
+
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                PolicyFile candidate = PolicyFile.read(path);
+                BlacklistFeed feed = candidate.readBlacklistFeed(FabricLoader.getInstance().getGameDir());
+                PolicySimulator.Report report = PolicySimulator.simulate(candidate, modsWithBlocksAndItems, feed, HandshakeLog.load(log));
+                report.write(reportPath);
+
+                return report;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((report, throwable) -> server.execute(() -> {
+            if (throwable != null) {
+                LOG.error("Failed to simulate {}", path, throwable);
+                source.sendError(new TranslatableText("command.walled-garden.simulate.failed", path.toString()));
+                return;
+            }
+
+            source.sendFeedback(new TranslatableText("command.walled-garden.simulate",
+                    report.rejected.size(), report.players, report.lists, report.millis), false);
+
+            int shown = 0;
+
+            for (Map.Entry<String, PolicySimulator.Verdict> entry : report.rejected.entrySet()) {
+                if (shown++ == 10) break;
+
+                source.sendFeedback(new TranslatableText("command.walled-garden.simulate.entry",
+                        entry.getKey(), entry.getValue().toString()), false);
+            }
+
+            if (report.incomplete > 0) {
+                source.sendFeedback(new TranslatableText("command.walled-garden.simulate.incomplete", report.incomplete), false);
+            }
+
+            source.sendFeedback(new TranslatableText("command.walled-garden.export", reportPath.toString()), false);
+        }));
+
+        return 1;
+    }
+
+    /**
+     * Writes every online player's mods and compliance with the current policy, followed by how many of them each rule
+     * applies to, in the background.
+     */
+    private static int report(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        MinecraftServer server = source.getMinecraftServer();
+        Path path = FabricLoader.getInstance().getGameDir().resolve(context.getArgument("file", String.class));
+        PlayerVersionMap versions = (PlayerVersionMap) server;
+        Map<String, PlayerModVersionsContainerImpl> players = new LinkedHashMap<>();
+
+        for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
+            String playerName = player.getGameProfile().getName();
+            players.put(playerName, (PlayerModVersionsContainerImpl) versions.getModVersions(playerName));
+        }
+
+        PolicyReport.snapshot(players).write(path).whenComplete((result, throwable) -> server.execute(() -> {
+            if (throwable != null) {
+                LOG.error("Failed to write policy report {}", path, throwable);
+                source.sendError(new TranslatableText("command.walled-garden.export.failed", path.toString()));
+            } else {
+                source.sendFeedback(new TranslatableText("command.walled-garden.report", players.size(), path.toString()), false);
+            }
+        }));
+
+        return players.size();
+    }
+
+    private static int shadowStage(CommandContext<ServerCommandSource> context) {
+        String file = context.getArgument("file", String.class);
+        Path path = FabricLoader.getInstance().getGameDir().resolve(file);
+
+        try {
+            ShadowPolicy.load(path);
+        } catch (Exception e) {
+            LOG.error("Failed to read shadow policy {}", path, e);
+            context.getSource().sendError(new TranslatableText("command.walled-garden.shadow.failed", path.toString()));
+            return 0;
+        }
+
+        Config.setShadowPolicy(file);
+        context.getSource().sendFeedback(new TranslatableText("command.walled-garden.shadow.staged", path.toString()), true);
+
+        return 1;
+    }
+
+    private static int shadowClear(CommandContext<ServerCommandSource> context) {
+        try {
+            ShadowPolicy.load(null);
+        } catch (Exception ignored) {
+            // Clearing doesn't read anything
+        }
+
+        Config.setShadowPolicy(null);
+        context.getSource().sendFeedback(new TranslatableText("command.walled-garden.shadow.cleared"), true);
+
+        return 1;
+    }
+
+    private static int shadowStatus(CommandContext<ServerCommandSource> context) {
+        ShadowPolicy.Shadow shadow = ShadowPolicy.get();
+
+        if (shadow == null) {
+            context.getSource().sendFeedback(new TranslatableText("command.walled-garden.shadow.none"), false);
+            return 0;
+        }
+
+        context.getSource().sendFeedback(new TranslatableText("command.walled-garden.shadow.status", shadow.path.toString(),
+                shadow.evaluated.get(), shadow.wouldReject.get(), shadow.wouldAccept.get(), shadow.incomplete.get(), shadow.skipped.get()), false);
+
+        for (ShadowPolicy.Divergence divergence : shadow.getSamples()) {
+            context.getSource().sendFeedback(divergence.wouldReject
+                    ? new TranslatableText("command.walled-garden.shadow.rejected", divergence.playerName, divergence.reason)
+                    : new TranslatableText("command.walled-garden.shadow.accepted", divergence.playerName), false);
+        }
+
+        return 1;
+    }
+
     private static int get(CommandContext<ServerCommandSource> context) {
         String action = context.getArgument("action", String.class);
 
@@ -210,7 +481,7 @@ public class WalledGarden implements ModInitializer {
             boolean disconnect = false;
 
             if (versionString == null) {
-                disconnect = true;
+                disconnect = ((PlayerModVersionsContainerImpl) playerVersions).wouldHaveReported(modId);
             } else {
                 try {
                     SemanticVersion version = SemanticVersion.parse(versionString);
@@ -243,21 +514,8 @@ public class WalledGarden implements ModInitializer {
     private static int blacklist(ServerCommandSource source, String modId, ModDependency dependency) {
         Config.blacklist(modId, dependency);
 
-        MinecraftServer server = source.getMinecraftServer();
-        PlayerVersionMap versions = (PlayerVersionMap) server;
-        PlayerManager playerManager = server.getPlayerManager();
-
-        for (ServerPlayerEntity player : playerManager.getPlayerList()) {
-            PlayerModVersionsContainer playerVersions = versions.getModVersions(player.getGameProfile().getName());
-            String version = playerVersions.getVersion(modId);
-
-            if (version != null && isBlacklisted(modId, version)) {
-                player.networkHandler.disconnect(
-                        new TranslatableText("message.walled-garden.blacklist",
-                                "\n" + DependencyUtil.toString(dependency))
-                );
-            }
-        }
+        // The mod id may be a pattern, so let the compiled policy work out who it applies to
+        recheckPlayers(source.getMinecraftServer());
 
         source.sendFeedback(
                 new TranslatableText("command.walled-garden.blacklist", DependencyUtil.toString(dependency)), true);
@@ -267,36 +525,40 @@ public class WalledGarden implements ModInitializer {
 
     private static int whitelist(ServerCommandSource source, String modId, ModDependency dependency) {
         Config.whitelist(modId, dependency);
+        recheckPlayers(source.getMinecraftServer());
 
-        MinecraftServer server = source.getMinecraftServer();
-        PlayerVersionMap versions = (PlayerVersionMap) server;
-        PlayerManager playerManager = server.getPlayerManager();
+        source.sendFeedback(
+                new TranslatableText("command.walled-garden.whitelist", DependencyUtil.toString(dependency)), true);
 
-        for (ServerPlayerEntity player : playerManager.getPlayerList()) {
-            PlayerModVersionsContainer playerVersions = versions.getModVersions(player.getGameProfile().getName());
+        return 1;
+    }
 
-            StringBuilder builder = new StringBuilder();
+    /**
+     * Disconnects online players whose mods the current policy doesn't allow, after it changed. Jar hashes aren't kept
+     * after login, so integrity isn't checked again.
+     */
+    static void recheckPlayers(MinecraftServer server) {
+        CompiledPolicy policy = Config.compile();
+        PlayerVersionMap versions = (PlayerVersionMap) server;
 
-            for (Map.Entry<String, String> modVersions : playerVersions) {
-                if (!isWhitelisted(modVersions.getKey(), modVersions.getValue())) {
-                    builder.append("\n").append(modVersions.getKey());
-                }
-            }
+        for (ServerPlayerEntity player : server.getPlayerManager().getPlayerList()) {
+            String playerName = player.getGameProfile().getName();
+            PlayerModVersionsContainerImpl playerVersions = (PlayerModVersionsContainerImpl) versions.getModVersions(playerName);
+            CompiledPolicy.Result result = policy.evaluate(playerVersions.asMap());
 
-            String message = builder.toString();
+            // We can't tell what a player is missing if they only told us about the mods we asked for
+            result.missing.keySet().removeIf(modId -> !playerVersions.wouldHaveReported(modId));
 
-            if (!message.isEmpty()) {
-                player.networkHandler.disconnect(
-                        new TranslatableText("message.walled-garden.whitelist",
-                                message)
-                );
-            }
+            DisconnectMessages.get(policy, playerName, result.notAllowed, Collections.emptyMap(), result.missing)
+                    .ifPresent(player.networkHandler::disconnect);
         }
+    }
 
-        source.sendFeedback(
-                new TranslatableText("command.walled-garden.whitelist", DependencyUtil.toString(dependency)), true);
-
-        return 1;
+    /**
+     * @return whether the given mod is always allowed, regardless of the whitelist
+     */
+    public static boolean isDefault(String modId) {
+        return CompiledPolicy.DEFAULT_WHITELIST.contains(modId);
     }
 
     public static boolean isBlacklisted(String modId, String modVersion) {
@@ -311,7 +573,7 @@ public class WalledGarden implements ModInitializer {
     public static boolean isWhitelisted(String modId, String modVersion) {
         if (Config.getWhitelistedMods().isEmpty()) return true;
 
-        if (DEFAULT_WHITELIST.contains(modId)) return true;
+        if (isDefault(modId)) return true;
 
         try {
             ModDependency dependency = Config.getWhitelistedVersion(modId);
@@ -335,20 +597,22 @@ public class WalledGarden implements ModInitializer {
     private static final Map<String, Condition> CONDITIONS = new HashMap<>();
 
     enum Condition {
-        BLACKLISTED("blacklist", Config::getBlacklistedMods, WalledGarden::blacklist, Config::getBlacklistedVersion, Config::unBlacklist),
-        REQUIRED("required", Config::getRequiredMods, WalledGarden::require, Config::getRequiredVersion, Config::unRequire),
-        WHITELISTED("whitelist", Config::getWhitelistedMods, WalledGarden::whitelist, Config::getWhitelistedVersion, Config::unWhitelist);
+        BLACKLISTED("blacklist", Config::getBlacklistedMods, WalledGarden::blacklist, Config::hasBlacklistRule, Config::getBlacklistedVersion, Config::unBlacklist),
+        REQUIRED("required", Config::getRequiredMods, WalledGarden::require, Config::hasRequiredRule, Config::getRequiredVersion, Config::unRequire),
+        WHITELISTED("whitelist", Config::getWhitelistedMods, WalledGarden::whitelist, Config::hasWhitelistRule, Config::getWhitelistedVersion, Config::unWhitelist);
 
         public final String condition;
         private final Supplier<Collection<ModDependency>> list;
         private final Adder adder;
+        private final Predicate<String> hasRule;
         private final Function<String, @Nullable ModDependency> getter;
         private final Function<String, @Nullable ModDependency> remover;
 
-        Condition(String condition, Supplier<Collection<ModDependency>> list, Adder adder, Function<String, @Nullable ModDependency> getter, Function<String, @Nullable ModDependency> remover) {
+        Condition(String condition, Supplier<Collection<ModDependency>> list, Adder adder, Predicate<String> hasRule, Function<String, @Nullable ModDependency> getter, Function<String, @Nullable ModDependency> remover) {
             this.condition = condition;
             this.list = list;
             this.adder = adder;
+            this.hasRule = hasRule;
             this.getter = getter;
             this.remover = remover;
             CONDITIONS.put(condition, this);
@@ -366,6 +630,13 @@ public class WalledGarden implements ModInitializer {
             return this.adder.add(source, modId, dependency);
         }
 
+        /**
+         * @return whether there's a rule for exactly the given mod id, rather than a pattern that matches it
+         */
+        public boolean hasRule(String modId) {
+            return this.hasRule.test(modId);
+        }
+
         public @Nullable ModDependency get(String modId) {
             return this.getter.apply(modId);
         }
@@ -391,37 +662,49 @@ public class WalledGarden implements ModInitializer {
         }
     }
 
-    public static Optional<MutableText> checkBlacklist(String playerName, Map<String, String> blackListed) {
-        if (blackListed.isEmpty()) return Optional.empty();
+    public static Optional<MutableText> checkRequiredMods(String playerName, Map<String, String> missingMods){
+        if (missingMods.isEmpty()) return Optional.empty();
 
-        LOG.info("{} tried to join with disallowed mods:", playerName);
+        logViolations("{} tried to join without the following mods:", playerName, missingMods);
 
-        StringBuilder builder = new StringBuilder();
+        return Optional.of(getRequiredModsText(missingMods));
+    }
+
+    static void logViolations(String message, String playerName, Map<String, String> mods) {
+        if (mods.isEmpty()) return;
+
+        LOG.info(message, playerName);
+
+        for (Map.Entry<String, String> entry : mods.entrySet()) {
+            LOG.info("\t{}: {}", entry.getKey(), entry.getValue());
+        }
+    }
 
-        for (Map.Entry<String, String> entry : blackListed.entrySet()) {
-            String modId = entry.getKey();
-            String modVersion = entry.getValue();
-            LOG.info("\t{}: {}", modId, modVersion);
+    static MutableText getBlacklistText(CompiledPolicy policy, Map<String, String> blackListed) {
+        StringBuilder builder = new StringBuilder();
 
+        for (String modId : blackListed.keySet()) {
             builder.append("\n");
 
-            ModDependency dependency = Config.getBlacklistedVersion(modId);
+            ModDependency dependency = policy.getBlacklistRule(modId);
             builder.append(dependency == null ? modId : dependency);
         }
 
-        return Optional.of(new TranslatableText("message.walled-garden.blacklist", builder.toString()));
+        return new TranslatableText("message.walled-garden.blacklist", builder.toString());
     }
 
-    public static Optional<MutableText> checkRequiredMods(String playerName, Map<String, String> missingMods){
-        if (missingMods.isEmpty()) return Optional.empty();
-
-        LOG.info("{} tried to join without the following mods:", playerName);
+    static MutableText getIntegrityText(Map<String, String> unverified) {
+        StringBuilder builder = new StringBuilder();
 
-        for (Map.Entry<String, String> entry : missingMods.entrySet()) {
-            LOG.info("\t{}: {}", entry.getKey(), entry.getValue());
+        for (Map.Entry<String, String> entry : unverified.entrySet()) {
+            builder.append("\n").append(entry.getKey()).append(" ").append(entry.getValue());
         }
 
-        return Optional.of(new TranslatableText("message.walled-garden.required")
-                .append(DependencyUtil.getTextWithLinks(missingMods)));
+        return new TranslatableText("message.walled-garden.integrity", builder.toString());
+    }
+
+    static MutableText getRequiredModsText(Map<String, String> missingMods) {
+        return new TranslatableText("message.walled-garden.required")
+                .append(DisconnectMessages.getTextWithLinks(missingMods));
     }
 }
@@ -1,5 +1,7 @@
 package dev.hephaestus.garden.impl;
 
+import com.google.common.hash.HashCode;
+import dev.hephaestus.garden.api.ModListValidatedCallback;
 import dev.hephaestus.garden.mixin.GameProfileAccessor;
 import io.netty.buffer.Unpooled;
 import io.netty.util.concurrent.Future;
@@ -9,20 +11,14 @@ import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.client.networking.v1.ClientLoginNetworking;
-import net.fabricmc.fabric.api.networking.v1.PacketByteBufs;
 import net.fabricmc.fabric.api.networking.v1.PacketSender;
 import net.fabricmc.fabric.api.networking.v1.ServerLoginConnectionEvents;
 import net.fabricmc.fabric.api.networking.v1.ServerLoginNetworking;
-import net.fabricmc.loader.api.FabricLoader;
-import net.fabricmc.loader.api.ModContainer;
-import net.fabricmc.loader.api.metadata.ModMetadata;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.network.ClientLoginNetworkHandler;
 import net.minecraft.network.PacketByteBuf;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.network.ServerLoginNetworkHandler;
-import net.minecraft.text.LiteralText;
-import net.minecraft.text.MutableText;
 import net.minecraft.text.Text;
 import net.minecraft.util.Identifier;
 
@@ -32,8 +28,9 @@ import java.util.function.Consumer;
 
 public class WalledGardenNetworking implements ModInitializer, ClientModInitializer {
 	private static final Identifier MOD_VALIDATION_CHANNEL = WalledGarden.id("channel", "mod_validation");
-	private static final Text REQUEST_NOT_UNDERSTOOD = new LiteralText("Please install the Walled Garden mod to play on this server.");
-	private static final Text ALSO_REQUIRED = new LiteralText("The following mods are also required:");
+
+	// Whether each player was asked about every mod they have, rather than just the ones our rules mention
+	private static final Map<ServerLoginNetworkHandler, Boolean> ASKED_FOR_EVERY_MOD = Collections.synchronizedMap(new WeakHashMap<>());
 
 	@Override
 	public void onInitialize() {
@@ -44,91 +41,128 @@ public class WalledGardenNetworking implements ModInitializer, ClientModInitiali
 	@Override
 	@Environment(EnvType.CLIENT)
 	public void onInitializeClient() {
+		ClientModList.init();
 		ClientLoginNetworking.registerGlobalReceiver(MOD_VALIDATION_CHANNEL, WalledGardenNetworking::response);
 	}
 
 	private static void request(ServerLoginNetworkHandler handler, MinecraftServer server, PacketSender sender, ServerLoginNetworking.LoginSynchronizer loginSynchronizer) {
-		sender.sendPacket(MOD_VALIDATION_CHANNEL, PacketByteBufs.empty());
+		byte[] policy = SyncedPolicy.encode();
+
+		ASKED_FOR_EVERY_MOD.put(handler, SyncedPolicy.isReportAll(policy));
+		sender.sendPacket(MOD_VALIDATION_CHANNEL, new PacketByteBuf(Unpooled.wrappedBuffer(policy)));
 	}
 
 	@Environment(EnvType.CLIENT)
-	private static CompletableFuture<PacketByteBuf> response(MinecraftClient client, ClientLoginNetworkHandler handler, PacketByteBuf empty, Consumer<GenericFutureListener<? extends Future<? super Void>>> genericFutureListenerConsumer) {
-		PacketByteBuf buf = new PacketByteBuf(Unpooled.buffer());
-
-		Collection<ModContainer> mods = FabricLoader.getInstance().getAllMods();
-
-		buf.writeVarInt(mods.size());
-
-		for (ModContainer container : mods) {
-			ModMetadata metadata = container.getMetadata();
-			buf.writeString(metadata.getId());
-			buf.writeString(metadata.getVersion().toString());
-		}
-
-		return CompletableFuture.completedFuture(buf);
+	private static CompletableFuture<PacketByteBuf> response(MinecraftClient client, ClientLoginNetworkHandler handler, PacketByteBuf buf, Consumer<GenericFutureListener<? extends Future<? super Void>>> genericFutureListenerConsumer) {
+		return ClientModList.get().createResponse(SyncedPolicy.read(buf));
 	}
 
 	private static void handleResponse(MinecraftServer server, ServerLoginNetworkHandler handler, boolean understood, PacketByteBuf buf, ServerLoginNetworking.LoginSynchronizer loginSynchronizer, PacketSender sender) {
 		if (!understood) {
-			MutableText text = REQUEST_NOT_UNDERSTOOD.copy();
+			handler.disconnect(DisconnectMessages.notUnderstood(Config.getCompiled()));
+		} else {
+			String playerName = ((GameProfileAccessor) handler).getProfile().getName();
+
+			// Mod lists that were already accepted under the current policy don't need to be evaluated again
+			CompiledPolicy policy = Config.getCompiled();
+			HashCode verdictKey = VerdictCache.key(policy.hash, buf, buf.readerIndex(), buf.readableBytes());
+			boolean accepted = VerdictCache.isAccepted(verdictKey);
 
-			if (!Config.getRequiredMods().isEmpty()) {
-				text.append(new LiteralText("\n").append(ALSO_REQUIRED));
+			// The buffer is released once we return, so only copy the response if something wants it afterwards
+			byte[] response = null;
+
+			if (Config.isRecordingHandshakes() || ShadowPolicy.isActive()) {
+				response = new byte[buf.readableBytes()];
+				buf.getBytes(buf.readerIndex(), response);
 			}
 
-			text.append(DependencyUtil.getTextWithLinks(Collections.emptyMap()));
+			// Evaluate the mod list straight from the buffer, then come back for it if we decide to keep it
+			int listStart = buf.readerIndex();
+			CompiledPolicy.Result result = null;
 
-			handler.disconnect(text);
-		} else {
-			String playerName = ((GameProfileAccessor) handler).getProfile().getName();
+			if (accepted) {
+				CompiledPolicy.skip(buf);
+			} else {
+				result = policy.evaluate(buf);
+			}
 
-			Map<String, String> mods = new HashMap<>();
-			Map<String, String> notAllowedMods = new LinkedHashMap<>();
+			// Clients that understood our policy only send the mods we asked for, which is every mod if we asked for
+			// every mod no matter what their marker says
+			boolean partial = buf.isReadable() && buf.readBoolean();
+			boolean complete = ASKED_FOR_EVERY_MOD.remove(handler) == Boolean.TRUE || !partial;
 
-			int modCount = buf.readVarInt();
+			Map<String, HashCode> hashes = new HashMap<>();
 
-			// Read all mods from the packet buffer
-			for (int i = 0; i < modCount; ++i) {
-				String modId = buf.readString(32767);
-				String modVersion = buf.readString(32767);
+			if (buf.isReadable()) {
+				int hashCount = buf.readVarInt();
 
-				if (WalledGarden.isBlacklisted(modId, modVersion) || (!WalledGarden.isWhitelisted(modId, modVersion) && !WalledGarden.isRequired(modId, modVersion))) {
-					notAllowedMods.put(modId, modVersion);
+				for (int i = 0; i < hashCount; ++i) {
+					hashes.put(buf.readString(32767), HashCode.fromBytes(buf.readByteArray(64)));
 				}
+			}
 
-				mods.put(modId, modVersion);
+			if (Config.isRecordingHandshakes() && response != null) {
+				HandshakeLog.record(playerName, response, complete);
 			}
 
-			Map<String, String> requiredMods = Config.getMissing(mods);
+			if (result != null) {
+				Map<String, String> unverifiedMods = new LinkedHashMap<>();
 
-			Optional<MutableText> blacklistResult = WalledGarden.checkBlacklist(playerName, notAllowedMods);
-			Optional<MutableText> requiredModsResult = WalledGarden.checkRequiredMods(playerName, requiredMods);
+				for (Map.Entry<String, String> mod : result.verified.entrySet()) {
+					if (!policy.isHashAllowed(mod.getKey(), hashes.get(mod.getKey()))) {
+						unverifiedMods.put(mod.getKey(), mod.getValue());
+					}
+				}
 
-			// Disconnect if either criteria is not met
-			if (blacklistResult.isPresent() || requiredModsResult.isPresent()) {
-				MutableText disconnectReason = new LiteralText("");
+				Optional<Text> disconnectReason = DisconnectMessages.get(policy, playerName, result.notAllowed, unverifiedMods, result.missing);
 
-				if (blacklistResult.isPresent()) {
-					disconnectReason.append(blacklistResult.get());
+				ShadowPolicy.evaluate(playerName, response, complete, result.missing.keySet(), disconnectReason.isPresent(), policy);
 
-					if (requiredModsResult.isPresent()) {
-						disconnectReason.append(new LiteralText("\n\n"));
+				// Disconnect if any criteria is not met
+				if (disconnectReason.isPresent()) {
+					for (String modId : result.notAllowed.keySet()) {
+						ModIdIndex.observe(modId);
 					}
-				}
-
-				requiredModsResult.ifPresent(disconnectReason::append);
 
-				handler.disconnect(disconnectReason);
-				return;
+					handler.disconnect(disconnectReason.get());
+					return;
+				}
+			} else {
+				// Already accepted under the current policy
+				ShadowPolicy.evaluate(playerName, response, complete, Collections.emptySet(), false, policy);
 			}
 
-			// And finally update the players version map if they're not disconnected.
+			VerdictCache.accept(verdictKey);
+
+			// And finally update the players version map if they're not disconnected. The mod list is only decoded now
+			// that we know we're keeping it
 			PlayerModVersionsContainerImpl versions = (PlayerModVersionsContainerImpl) ((PlayerVersionMap) server).getModVersions(playerName);
+			Map<String, String> mods = readMods(buf, listStart);
+
+			for (String modId : mods.keySet()) {
+				ModIdIndex.observe(modId);
+			}
 
-			for (Map.Entry<String, String> mod : mods.entrySet()) {
-				versions.put(mod.getKey(), mod.getValue());
+			if (Config.isCatalogEnabled()) {
+				ModCatalog.record(playerName, mods);
 			}
+
+			versions.set(mods, complete);
+
+			// Logging in waits for this, so listeners always run before the player joins
+			loginSynchronizer.waitFor(CompletableFuture.runAsync(() -> ModListValidatedCallback.EVENT.invoker().onValidated(server, playerName, versions), server));
 		}
 	}
 
+	private static Map<String, String> readMods(PacketByteBuf buf, int start) {
+		int readerIndex = buf.readerIndex();
+		buf.readerIndex(start);
+
+		Map<String, String> mods = CompiledPolicy.read(buf);
+
+		buf.readerIndex(readerIndex);
+
+		return mods;
+	}
+
 }
@@ -7,12 +7,12 @@ import net.minecraft.server.MinecraftServer;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.Unique;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Mixin(MinecraftServer.class)
 public class MixinMinecraftServer implements PlayerVersionMap {
-    @Unique private final Map<String, PlayerModVersionsContainer> playerVersions = new HashMap<>();
+    @Unique private final Map<String, PlayerModVersionsContainer> playerVersions = new ConcurrentHashMap<>();
 
 
     @Override
@@ -0,0 +1,58 @@
+package dev.hephaestus.garden.mixin;
+
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import dev.hephaestus.garden.impl.ClientModList;
+import dev.hephaestus.garden.impl.SyncedPolicy;
+import net.minecraft.server.ServerMetadata;
+import net.minecraft.text.LiteralText;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Text;
+import net.minecraft.text.TranslatableText;
+import net.minecraft.util.Formatting;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+@Mixin(ServerMetadata.Deserializer.class)
+public class MixinServerMetadataDeserializer {
+    @Inject(method = "deserialize(Lcom/google/gson/JsonElement;Ljava/lang/reflect/Type;Lcom/google/gson/JsonDeserializationContext;)Lnet/minecraft/server/ServerMetadata;", at = @At("RETURN"))
+    private void checkPolicy(JsonElement element, Type type, JsonDeserializationContext context, CallbackInfoReturnable<ServerMetadata> cir) {
+        JsonObject object = element.getAsJsonObject();
+
+        if (!object.has(SyncedPolicy.STATUS_KEY) || !object.get(SyncedPolicy.STATUS_KEY).isJsonObject()) return;
+
+        List<String> problems;
+
+        try {
+            SyncedPolicy policy = SyncedPolicy.fromStatus(object.getAsJsonObject(SyncedPolicy.STATUS_KEY));
+
+            if (policy == null) return;
+
+            problems = policy.getProblems(ClientModList.get());
+        } catch (RuntimeException e) {
+            // Whatever the server sent, it shouldn't keep the rest of the server list from loading
+            return;
+        }
+
+        if (!problems.isEmpty()) {
+            ServerMetadata metadata = cir.getReturnValue();
+            MutableText description = new LiteralText("");
+            Text original = metadata.getDescription();
+
+            if (original != null) {
+                description.append(original).append("\n");
+            }
+
+            description.append(new TranslatableText("message.walled-garden.status.incompatible", String.join(", ", problems))
+                    .formatted(Formatting.RED));
+
+            metadata.setDescription(description);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package dev.hephaestus.garden.mixin;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSerializationContext;
+import dev.hephaestus.garden.impl.SyncedPolicy;
+import net.minecraft.server.ServerMetadata;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfoReturnable;
+
+import java.lang.reflect.Type;
+
+@Mixin(ServerMetadata.Deserializer.class)
+public class MixinServerMetadataSerializer {
+    @Inject(method = "serialize(Lnet/minecraft/server/ServerMetadata;Ljava/lang/reflect/Type;Lcom/google/gson/JsonSerializationContext;)Lcom/google/gson/JsonElement;", at = @At("RETURN"))
+    private void addPolicyFingerprint(ServerMetadata metadata, Type type, JsonSerializationContext context, CallbackInfoReturnable<JsonElement> cir) {
+        JsonObject status = SyncedPolicy.toStatus();
+
+        if (status != null) {
+            cir.getReturnValue().getAsJsonObject().add(SyncedPolicy.STATUS_KEY, status);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package dev.hephaestus.garden.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GlobAutomatonTest {
+    @Test
+    void starMatchesAnySequence() {
+        GlobAutomaton automaton = new GlobAutomaton(Collections.singletonList("foo-*"));
+
+        assertTrue(automaton.isCompiled());
+        assertEquals("foo-*", automaton.match("foo-"));
+        assertEquals("foo-*", automaton.match("foo-bar"));
+        assertEquals("foo-*", automaton.match("foo-bar-baz"));
+        assertNull(automaton.match("foo"));
+        assertNull(automaton.match("xfoo-bar"));
+    }
+
+    @Test
+    void questionMarkMatchesExactlyOneCharacter() {
+        GlobAutomaton automaton = new GlobAutomaton(Collections.singletonList("mod-?"));
+
+        assertEquals("mod-?", automaton.match("mod-a"));
+        assertNull(automaton.match("mod-"));
+        assertNull(automaton.match("mod-ab"));
+    }
+
+    @Test
+    void starsMatchInTheMiddle() {
+        GlobAutomaton automaton = new GlobAutomaton(Collections.singletonList("*cheat*"));
+
+        assertEquals("*cheat*", automaton.match("cheat"));
+        assertEquals("*cheat*", automaton.match("xcheaty"));
+        assertEquals("*cheat*", automaton.match("chcheat"));
+        assertNull(automaton.match("chat"));
+    }
+
+    @Test
+    void firstMatchingPatternWins() {
+        GlobAutomaton automaton = new GlobAutomaton(Arrays.asList("foo-*", "*-bar"));
+
+        assertEquals("foo-*", automaton.match("foo-bar"));
+        assertEquals("*-bar", automaton.match("baz-bar"));
+        assertNull(automaton.match("baz-baz"));
+    }
+
+    @Test
+    void emptyAutomatonMatchesNothing() {
+        assertNull(GlobAutomaton.EMPTY.match("anything"));
+        assertNull(GlobAutomaton.EMPTY.match(""));
+    }
+
+    @Test
+    void matchesStraightOutOfABuffer() {
+        GlobAutomaton automaton = new GlobAutomaton(Arrays.asList("foo-*", "b?r"));
+        ByteBuf buf = Unpooled.wrappedBuffer("xxfoo-barbar".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("foo-*", automaton.match(buf, 2, 7));
+        assertEquals("b?r", automaton.match(buf, 9, 3));
+        assertNull(automaton.match(buf, 0, 3));
+    }
+
+    @Test
+    void nonAsciiMatchesTheSameFromAStringAndABuffer() {
+        GlobAutomaton automaton = new GlobAutomaton(Arrays.asList("a?", "é", "x*z"));
+
+        for (String modId : new String[] {"aé", "a\uD83D\uDE00", "é", "xéz"}) {
+            ByteBuf buf = Unpooled.wrappedBuffer(modId.getBytes(StandardCharsets.UTF_8));
+
+            assertNotNull(automaton.match(modId), modId);
+            assertEquals(automaton.match(modId), automaton.match(buf, 0, buf.readableBytes()), modId);
+        }
+
+        ByteBuf buf = Unpooled.wrappedBuffer("aéé".getBytes(StandardCharsets.UTF_8));
+
+        assertNull(automaton.match("aéé"));
+        assertNull(automaton.match(buf, 0, buf.readableBytes()));
+        assertNull(automaton.match("e"));
+    }
+
+    @Test
+    void fallsBackToTheNfaWhenTheDfaIsTooLarge() {
+        // Telling whether an 'a' was 15 characters from the end takes 2^15 states
+        String pattern = "*a???????????????";
+        GlobAutomaton automaton = new GlobAutomaton(Arrays.asList(pattern, "exact"));
+        String tail = "bbbbbbbbbbbbbbb";
+
+        assertFalse(automaton.isCompiled());
+        assertEquals(pattern, automaton.match("xa" + tail));
+        assertEquals(pattern, automaton.match("aaaaa" + tail.substring(1) + "a"));
+        assertNull(automaton.match("xb" + tail));
+        assertNull(automaton.match("a" + tail.substring(1)));
+        assertEquals("exact", automaton.match("exact"));
+
+        ByteBuf buf = Unpooled.wrappedBuffer(("a" + tail).getBytes(StandardCharsets.UTF_8));
+        assertEquals(pattern, automaton.match(buf, 0, buf.readableBytes()));
+    }
+}